@@ -0,0 +1,29 @@
+package pulse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Workloads shared by the JMH benchmarks.
+//  - Paths are relative to the project root, where `mvn exec:exec` runs.
+//  - `print` goes to a sink, so the benchmarks measure the interpreter,
+//    not the terminal.
+final class BenchmarkScripts {
+    private BenchmarkScripts() {}
+
+    // hello -> hello.txt (quicksort), anything else -> benchmarks/<name>.txt
+    static String load(String name) throws IOException {
+        Path path = name.equals("hello")
+            ? Path.of("hello.txt")
+            : Path.of("benchmarks", name + ".txt");
+        return new String(Files.readAllBytes(path), Charset.defaultCharset());
+    }
+
+    // batch output that's thrown away
+    static Output sink() {
+        return new Output(OutputStream.nullOutputStream(),
+            Charset.defaultCharset(), false);
+    }
+}
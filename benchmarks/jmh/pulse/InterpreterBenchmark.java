@@ -0,0 +1,41 @@
+package pulse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Executing a resolved syntax tree.
+//  - The script is scanned, parsed, optimized and resolved once per trial; each
+//    invocation re-runs all of its statements on the same interpreter,
+//    the way the REPL does.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({"hello", "fib", "strings", "loops"})
+    public String script;
+
+    private Interpreter interpreter;
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() throws IOException {
+        TokenStream tokens = new Scanner(BenchmarkScripts.load(script)).scan();
+        statements = new Optimizer().optimize(new Parser(tokens).parse());
+        interpreter = new Interpreter();
+        interpreter.setOutput(BenchmarkScripts.sink());
+        new Resolver(interpreter).resolve(statements);
+        if (Pulse.hadError)
+            throw new IllegalStateException("'" + script + "' doesn't compile");
+    }
+
+    @Benchmark
+    public void interpret() {
+        interpreter.interpret(statements);
+    }
+}
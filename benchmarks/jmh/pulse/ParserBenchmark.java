@@ -0,0 +1,31 @@
+package pulse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Tokens -> syntax tree; the tokens are scanned once up front
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"hello", "fib", "strings", "loops"})
+    public String script;
+
+    private TokenStream tokens;
+
+    @Setup
+    public void setup() throws IOException {
+        tokens = new Scanner(BenchmarkScripts.load(script)).scan();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens).parse();
+    }
+}
@@ -0,0 +1,38 @@
+package pulse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Source -> tokens
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBenchmark {
+    @Param({"hello", "fib", "strings", "loops"})
+    public String script;
+
+    private String source;
+
+    @Setup
+    public void setup() throws IOException {
+        source = BenchmarkScripts.load(script);
+    }
+
+    // packed, what the Parser reads
+    @Benchmark
+    public TokenStream scan() {
+        return new Scanner(source).scan();
+    }
+
+    // one Token object per token
+    @Benchmark
+    public List<Token> scanTokens() {
+        return new Scanner(source).scanTokens();
+    }
+}
@@ -0,0 +1,635 @@
+/*
+ * On-disk cache of parsed (and optimized) scripts, so running the same
+ * file again skips the Scanner, Parser and Optimizer.
+ *  - Entries are named by the SHA-256 of the source and of the charset
+ *    it was decoded with (string literals are stored decoded), so an
+ *    edited script, or one read in another charset, simply misses;
+ *    nothing is ever invalidated.
+ *  - The tree is written in a compact binary form: one tag byte per node,
+ *    children in order, counts and lines as varints, and each distinct
+ *    string (names, string literals) written once, later uses referring
+ *    back to it by index.
+ *  - Only what the Parser produces is stored; the Resolver still runs on
+ *    every load, since slots depend on the interpreter's globals.
+ *  - The cache is best effort: anything unreadable is a miss, and failing
+ *    to write an entry isn't an error.
+ *  - Entries are code the next run executes, and their names are easy to
+ *    guess, so the directory is per user: it's created owner-only, and a
+ *    directory someone else owns or can write to isn't used at all.
+ */
+
+package pulse;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class AstCache {
+    private static final int MAGIC = 0x50415354; // "PAST"
+    // bump whenever the encoding, the tree, or the Optimizer changes
+    private static final int VERSION = 2;
+
+    // node tags; 0 is an absent (null) child
+    private static final byte NONE = 0;
+
+    private static final byte ASSIGN = 1;
+    private static final byte BINARY = 2;
+    private static final byte CALL = 3;
+    private static final byte GROUPING = 4;
+    private static final byte LITERAL = 5;
+    private static final byte LOGICAL = 6;
+    private static final byte SET = 7;
+    private static final byte UNARY = 8;
+    private static final byte VARIABLE = 9;
+    private static final byte ARRAY = 10;
+    private static final byte SUBSCRIPT = 11;
+    private static final byte MAP = 12;
+
+    private static final byte BLOCK = 20;
+    private static final byte EXPRESSION = 21;
+    private static final byte FUNCTION = 22;
+    private static final byte IF = 23;
+    private static final byte PRINT = 24;
+    private static final byte RETURN = 25;
+    private static final byte VAR = 26;
+    private static final byte WHILE = 27;
+
+    // literal value tags
+    private static final byte NIL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+    private static final byte INTEGER = 5; // a whole number as a varint
+
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final Path directory;
+    // whether the directory is safe to use; checked on first use
+    private Boolean trusted = null;
+
+    AstCache(Path directory) {
+        this.directory = directory;
+    }
+
+    // $PULSE_CACHE_DIR, else pulse under $XDG_CACHE_HOME, else ~/.cache/pulse
+    static AstCache standard() {
+        String dir = System.getenv("PULSE_CACHE_DIR");
+        if (dir != null)
+            return new AstCache(Path.of(dir));
+        String cacheHome = System.getenv("XDG_CACHE_HOME");
+        Path base = cacheHome != null && !cacheHome.isEmpty()
+            ? Path.of(cacheHome)
+            : Path.of(System.getProperty("user.home"), ".cache");
+        return new AstCache(base.resolve("pulse"));
+    }
+
+    private boolean trusted() {
+        if (trusted == null)
+            trusted = checkDirectory();
+        return trusted;
+    }
+
+    // Creates the directory, owner-only, if it isn't there. Whatever is
+    // there must be a directory (not a link to one) that this user owns
+    // and nobody else can write to; anyone who can put an entry in it
+    // chooses the code a later run executes.
+    private boolean checkDirectory() {
+        try {
+            boolean posix = directory.getFileSystem()
+                .supportedFileAttributeViews().contains("posix");
+            if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+                if (posix)
+                    Files.createDirectories(directory, PosixFilePermissions
+                        .asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+                else
+                    Files.createDirectories(directory);
+            }
+
+            if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS))
+                return refuse("it isn't a directory");
+            UserPrincipal user = directory.getFileSystem()
+                .getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+            if (!Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS).equals(user))
+                return refuse("it belongs to another user");
+            if (posix) {
+                Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(
+                    directory, LinkOption.NOFOLLOW_LINKS);
+                if (permissions.contains(PosixFilePermission.GROUP_WRITE)
+                        || permissions.contains(PosixFilePermission.OTHERS_WRITE))
+                    return refuse("other users can write to it");
+            }
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            // no cache this time
+            return false;
+        }
+    }
+
+    private boolean refuse(String reason) {
+        System.err.println("Not caching parsed scripts in " + directory
+            + ": " + reason + ".");
+        return false;
+    }
+
+    static String key(ByteBuffer source, Charset charset) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(charset.name().getBytes(StandardCharsets.UTF_8));
+            // a separator no charset name contains
+            digest.update((byte)0);
+            digest.update(source);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM is required to have SHA-256
+            throw new AssertionError(e);
+        }
+    }
+
+    // the cached statements for a source hash, or null on a miss
+    List<Stmt> load(String key) {
+        if (!trusted())
+            return null;
+        Path path = directory.resolve(key + ".past");
+        if (!Files.isRegularFile(path))
+            return null;
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return null;
+            return new Decoder(in).statements();
+        } catch (IOException | RuntimeException e) {
+            // truncated, corrupt or from another version: parse instead
+            return null;
+        }
+    }
+
+    void store(String key, List<Stmt> statements) {
+        if (!trusted())
+            return;
+        try {
+            // write to a temporary file and move it into place, so other
+            // processes running the same script never see half an entry
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                new Encoder(out).statements(statements);
+            }
+            Files.move(temporary, directory.resolve(key + ".past"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UnsupportedOperationException e) {
+            // no cache this time
+        }
+    }
+
+    // Writing
+
+    private static class Encoder implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Encoder(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void statements(List<Stmt> statements) throws IOException {
+            try {
+                writeStatements(statements);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        // the visitors can't throw IOException, so it's tunneled out
+        private void write(Stmt stmt) {
+            if (stmt == null)
+                writeByte(NONE);
+            else
+                stmt.accept(this);
+        }
+        private void write(Expr expr) {
+            if (expr == null)
+                writeByte(NONE);
+            else
+                expr.accept(this);
+        }
+        private void writeStatements(List<Stmt> statements) {
+            writeVarint(statements.size());
+            for (Stmt statement : statements)
+                write(statement);
+        }
+        // the count is off by one so that 0 can mean a null list
+        private void writeExpressions(List<Expr> exprs) {
+            if (exprs == null) {
+                writeVarint(0);
+                return;
+            }
+            writeVarint(exprs.size() + 1);
+            for (Expr expr : exprs)
+                write(expr);
+        }
+
+        // only the type, lexeme and line; no token the tree keeps has a literal
+        private void writeToken(Token token) {
+            writeByte(token.type.ordinal());
+            writeString(token.lexeme);
+            writeVarint(token.line);
+        }
+
+        // index of a string seen before, or the next index and then the string
+        private void writeString(String string) {
+            Integer index = strings.get(string);
+            if (index != null) {
+                writeVarint(index);
+                return;
+            }
+            writeVarint(strings.size());
+            strings.put(string, strings.size());
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            try {
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeByte(int value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        // 7 bits a byte, low bits first, high bit set on all but the last
+        private void writeVarint(int value) {
+            while ((value & ~0x7f) != 0) {
+                writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+        private void writeDouble(double value) {
+            try {
+                out.writeDouble(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            writeByte(BLOCK);
+            writeStatements(stmt.statements);
+            return null;
+        }
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            writeByte(EXPRESSION);
+            write(stmt.expression);
+            return null;
+        }
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            writeByte(FUNCTION);
+            writeToken(stmt.name);
+            writeVarint(stmt.params.size());
+            for (Token param : stmt.params)
+                writeToken(param);
+            writeStatements(stmt.body);
+            return null;
+        }
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            writeByte(IF);
+            write(stmt.condition);
+            write(stmt.thenBranch);
+            write(stmt.elseBranch);
+            return null;
+        }
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            writeByte(PRINT);
+            write(stmt.expression);
+            return null;
+        }
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            writeByte(RETURN);
+            writeToken(stmt.keyword);
+            write(stmt.value);
+            return null;
+        }
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            writeByte(VAR);
+            writeToken(stmt.name);
+            write(stmt.initializer);
+            return null;
+        }
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            writeByte(WHILE);
+            write(stmt.condition);
+            write(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            writeByte(ASSIGN);
+            writeToken(expr.name);
+            write(expr.value);
+            return null;
+        }
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            writeByte(BINARY);
+            write(expr.left);
+            writeToken(expr.operator);
+            write(expr.right);
+            return null;
+        }
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            writeByte(CALL);
+            write(expr.callee);
+            writeToken(expr.paren);
+            writeExpressions(expr.arguments);
+            return null;
+        }
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            writeByte(GROUPING);
+            write(expr.expression);
+            return null;
+        }
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            writeByte(LITERAL);
+            Object value = expr.value;
+            if (value == null) {
+                writeByte(NIL);
+            } else if (value instanceof Boolean bool) {
+                writeByte(bool ? TRUE : FALSE);
+            } else if (value instanceof Double number) {
+                double d = number;
+                // -0.0 == 0 but prints as -0, so it stays a double
+                if (d >= 0 && d <= Integer.MAX_VALUE && d == (int)d
+                        && Double.doubleToRawLongBits(d) != NEGATIVE_ZERO) {
+                    writeByte(INTEGER);
+                    writeVarint((int)d);
+                } else {
+                    writeByte(NUMBER);
+                    writeDouble(d);
+                }
+            } else {
+                writeByte(STRING);
+                writeString((String)value);
+            }
+            return null;
+        }
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            writeByte(LOGICAL);
+            write(expr.left);
+            writeToken(expr.operator);
+            write(expr.right);
+            return null;
+        }
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            writeByte(SET);
+            write(expr.object);
+            writeToken(expr.name);
+            write(expr.right);
+            return null;
+        }
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            writeByte(UNARY);
+            writeToken(expr.operator);
+            write(expr.right);
+            return null;
+        }
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            writeByte(VARIABLE);
+            writeToken(expr.name);
+            return null;
+        }
+        @Override
+        public Void visitArrayExpr(Expr.Array expr) {
+            writeByte(ARRAY);
+            writeExpressions(expr.values);
+            return null;
+        }
+        @Override
+        public Void visitSubscriptExpr(Expr.Subscript expr) {
+            writeByte(SUBSCRIPT);
+            write(expr.object);
+            writeToken(expr.name);
+            write(expr.value);
+            return null;
+        }
+        @Override
+        public Void visitMapExpr(Expr.Map expr) {
+            writeByte(MAP);
+            writeToken(expr.brace);
+            writeExpressions(expr.keys);
+            writeExpressions(expr.values);
+            return null;
+        }
+    }
+
+    // Reading
+
+    private static class Decoder {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+
+        Decoder(DataInputStream in) {
+            this.in = in;
+        }
+
+        List<Stmt> statements() throws IOException {
+            int count = varint();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
+                statements.add(statement());
+            return statements;
+        }
+
+        private List<Expr> expressions() throws IOException {
+            int count = varint() - 1;
+            if (count < 0)
+                return null;
+            List<Expr> exprs = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
+                exprs.add(expression());
+            return exprs;
+        }
+
+        private Token token() throws IOException {
+            TokenType type = TOKEN_TYPES[in.readUnsignedByte()];
+            String lexeme = string();
+            return new Token(type, lexeme, null, varint());
+        }
+
+        private int varint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("bad varint");
+        }
+
+        private String string() throws IOException {
+            int index = varint();
+            if (index < strings.size())
+                return strings.get(index);
+            if (index != strings.size())
+                throw new IOException("bad string index " + index);
+
+            byte[] bytes = new byte[varint()];
+            in.readFully(bytes);
+            String string = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(string);
+            return string;
+        }
+
+        private Stmt statement() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NONE:
+                    return null;
+                case BLOCK:
+                    return new Stmt.Block(statements());
+                case EXPRESSION:
+                    return new Stmt.Expression(expression());
+                case FUNCTION: {
+                    Token name = token();
+                    int arity = varint();
+                    List<Token> params = new ArrayList<>(arity);
+                    for (int i = 0; i < arity; ++i)
+                        params.add(token());
+                    return new Stmt.Function(name, params, statements());
+                }
+                case IF: {
+                    Expr condition = expression();
+                    Stmt thenBranch = statement();
+                    return new Stmt.If(condition, thenBranch, statement());
+                }
+                case PRINT:
+                    return new Stmt.Print(expression());
+                case RETURN: {
+                    Token keyword = token();
+                    return new Stmt.Return(keyword, expression());
+                }
+                case VAR: {
+                    Token name = token();
+                    return new Stmt.Var(name, expression());
+                }
+                case WHILE: {
+                    Expr condition = expression();
+                    return new Stmt.While(condition, statement());
+                }
+                default:
+                    throw new IOException("bad statement tag " + tag);
+            }
+        }
+
+        private Expr expression() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NONE:
+                    return null;
+                case ASSIGN: {
+                    Token name = token();
+                    return new Expr.Assign(name, expression());
+                }
+                case BINARY: {
+                    Expr left = expression();
+                    Token operator = token();
+                    return new Expr.Binary(left, operator, expression());
+                }
+                case CALL: {
+                    Expr callee = expression();
+                    Token paren = token();
+                    return new Expr.Call(callee, paren, expressions());
+                }
+                case GROUPING:
+                    return new Expr.Grouping(expression());
+                case LITERAL:
+                    return new Expr.Literal(literal());
+                case LOGICAL: {
+                    Expr left = expression();
+                    Token operator = token();
+                    return new Expr.Logical(left, operator, expression());
+                }
+                case SET: {
+                    Expr object = expression();
+                    Token name = token();
+                    return new Expr.Set(object, name, expression());
+                }
+                case UNARY: {
+                    Token operator = token();
+                    return new Expr.Unary(operator, expression());
+                }
+                case VARIABLE:
+                    return new Expr.Variable(token());
+                case ARRAY:
+                    return new Expr.Array(expressions());
+                case SUBSCRIPT: {
+                    Expr object = expression();
+                    Token name = token();
+                    return new Expr.Subscript(object, name, expression());
+                }
+                case MAP: {
+                    Token brace = token();
+                    List<Expr> keys = expressions();
+                    return new Expr.Map(brace, keys, expressions());
+                }
+                default:
+                    throw new IOException("bad expression tag " + tag);
+            }
+        }
+
+        private Object literal() throws IOException {
+            byte tag = in.readByte();
+            return switch (tag) {
+                case NIL -> null;
+                case FALSE -> false;
+                case TRUE -> true;
+                case NUMBER -> in.readDouble();
+                case INTEGER -> (double)varint();
+                case STRING -> string();
+                default -> throw new IOException("bad literal tag " + tag);
+            };
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * How an Expr.Binary evaluates, rewritten as it runs (Truffle-style).
+ *  - Every Binary starts out UNINITIALIZED. Its first evaluation picks a
+ *    node specialized for its operator and, for +, for the operand types
+ *    it saw, and stores it in expr.node.
+ *  - A specialized node checks only what it has to; if + later sees
+ *    other types it rewrites itself to GENERIC, which handles anything.
+ *  - Nodes are stateless singletons, so any node is valid for any
+ *    Binary with a matching operator.
+ */
+
+package pulse;
+
+abstract class BinaryNode {
+    static final BinaryNode UNINITIALIZED = new Uninitialized();
+    static final BinaryNode GENERIC = new Generic();
+
+    private static final BinaryNode ADD_NUMBERS = new AddNumbers();
+    private static final BinaryNode CONCAT_STRINGS = new ConcatStrings();
+    private static final BinaryNode SUBTRACT_NUMBERS = new SubtractNumbers();
+    private static final BinaryNode MULTIPLY_NUMBERS = new MultiplyNumbers();
+    private static final BinaryNode DIVIDE_NUMBERS = new DivideNumbers();
+    private static final BinaryNode LESS_THAN_NUMBERS = new LessThanNumbers();
+    private static final BinaryNode LESS_EQUAL_NUMBERS = new LessEqualNumbers();
+    private static final BinaryNode GREATER_THAN_NUMBERS = new GreaterThanNumbers();
+    private static final BinaryNode GREATER_EQUAL_NUMBERS = new GreaterEqualNumbers();
+    private static final BinaryNode EQUAL = new Equal();
+    private static final BinaryNode NOT_EQUAL = new NotEqual();
+
+    // evaluates expr's operands and applies the operator
+    abstract Object execute(Interpreter interpreter, Expr.Binary expr);
+
+    // applies the operator to operands that were already evaluated
+    abstract Object apply(Expr.Binary expr, Object left, Object right);
+
+    // unboxed result, for arithmetic the Resolver marked numeric
+    double executeNumber(Interpreter interpreter, Expr.Binary expr) {
+        // Unreachable: only arithmetic nodes are used for numeric exprs.
+        throw new IllegalStateException(
+            "Not an arithmetic node: " + getClass().getSimpleName());
+    }
+
+    // picks expr's node from its operator and, for +, the operand types
+    private static BinaryNode specialize(Expr.Binary expr,
+                                         Object left, Object right) {
+        BinaryNode node = switch (expr.operator.type) {
+            case PLUS -> {
+                if (expr.numeric
+                        || (left instanceof Double && right instanceof Double))
+                    yield ADD_NUMBERS;
+                if (PulseString.isString(left) && PulseString.isString(right))
+                    yield CONCAT_STRINGS;
+                yield GENERIC;
+            }
+            case MINUS         -> SUBTRACT_NUMBERS;
+            case STAR          -> MULTIPLY_NUMBERS;
+            case SLASH         -> DIVIDE_NUMBERS;
+            case LESS          -> LESS_THAN_NUMBERS;
+            case LESS_EQUAL    -> LESS_EQUAL_NUMBERS;
+            case GREATER       -> GREATER_THAN_NUMBERS;
+            case GREATER_EQUAL -> GREATER_EQUAL_NUMBERS;
+            case EQUAL_EQUAL   -> EQUAL;
+            case BANG_EQUAL    -> NOT_EQUAL;
+            default            -> GENERIC;
+        };
+        expr.node = node;
+        return node;
+    }
+
+    // the types changed under a specialized node, handle anything from now on
+    private static Object generalize(Expr.Binary expr, Object left, Object right) {
+        expr.node = GENERIC;
+        return GENERIC.apply(expr, left, right);
+    }
+
+    private static double checkNumber(Token operator, Object operand) {
+        if (operand instanceof Double number)
+            return number;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    // The left operand of an operator that takes numbers, unboxed. One
+    // that isn't a number is only reported once the right operand has
+    // been evaluated too, as it is for every other operator, so
+    // `"a" < f()` still calls f.
+    private static double evaluateLeft(Interpreter interpreter, Expr.Binary expr) {
+        try {
+            return interpreter.evaluateNumber(expr.left, expr.operator);
+        } catch (RuntimeError error) {
+            // only the type check reports on this operator; anything else
+            // went wrong inside the left operand, which never finished
+            if (error.token != expr.operator)
+                throw error;
+            interpreter.evaluate(expr.right);
+            throw error;
+        }
+    }
+
+    private static final class Uninitialized extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            // only + needs to see its operands to specialize
+            if (expr.operator.type != TokenType.PLUS)
+                return specialize(expr, null, null).execute(interpreter, expr);
+
+            Object left = interpreter.evaluate(expr.left);
+            Object right = interpreter.evaluate(expr.right);
+            return specialize(expr, left, right).apply(expr, left, right);
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return specialize(expr, left, right).apply(expr, left, right);
+        }
+
+        @Override
+        double executeNumber(Interpreter interpreter, Expr.Binary expr) {
+            return specialize(expr, null, null).executeNumber(interpreter, expr);
+        }
+    }
+
+    // Arithmetic
+
+    private static final class AddNumbers extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            Object left = interpreter.evaluate(expr.left);
+            Object right = interpreter.evaluate(expr.right);
+            return apply(expr, left, right);
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double l && right instanceof Double r)
+                return DoubleCache.valueOf(l + r);
+            return generalize(expr, left, right);
+        }
+
+        @Override
+        double executeNumber(Interpreter interpreter, Expr.Binary expr) {
+            return evaluateLeft(interpreter, expr)
+                + interpreter.evaluateNumber(expr.right, expr.operator);
+        }
+    }
+
+    private static final class ConcatStrings extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            Object left = interpreter.evaluate(expr.left);
+            Object right = interpreter.evaluate(expr.right);
+            return apply(expr, left, right);
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            if (PulseString.isString(left) && PulseString.isString(right))
+                return PulseString.concat((CharSequence)left, (CharSequence)right);
+            return generalize(expr, left, right);
+        }
+    }
+
+    private static final class SubtractNumbers extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            return DoubleCache.valueOf(executeNumber(interpreter, expr));
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return DoubleCache.valueOf(checkNumber(expr.operator, left)
+                - checkNumber(expr.operator, right));
+        }
+
+        @Override
+        double executeNumber(Interpreter interpreter, Expr.Binary expr) {
+            return evaluateLeft(interpreter, expr)
+                - interpreter.evaluateNumber(expr.right, expr.operator);
+        }
+    }
+
+    private static final class MultiplyNumbers extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            return DoubleCache.valueOf(executeNumber(interpreter, expr));
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return DoubleCache.valueOf(checkNumber(expr.operator, left)
+                * checkNumber(expr.operator, right));
+        }
+
+        @Override
+        double executeNumber(Interpreter interpreter, Expr.Binary expr) {
+            return evaluateLeft(interpreter, expr)
+                * interpreter.evaluateNumber(expr.right, expr.operator);
+        }
+    }
+
+    private static final class DivideNumbers extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            return DoubleCache.valueOf(executeNumber(interpreter, expr));
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return DoubleCache.valueOf(divide(expr.operator,
+                checkNumber(expr.operator, left),
+                checkNumber(expr.operator, right)));
+        }
+
+        @Override
+        double executeNumber(Interpreter interpreter, Expr.Binary expr) {
+            return divide(expr.operator,
+                evaluateLeft(interpreter, expr),
+                interpreter.evaluateNumber(expr.right, expr.operator));
+        }
+
+        private static double divide(Token operator, double left, double right) {
+            if (right == 0)
+                throw new RuntimeError(operator, "Division by zero");
+            return left / right;
+        }
+    }
+
+    // Comparison
+
+    private static final class LessThanNumbers extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            return evaluateLeft(interpreter, expr)
+                < interpreter.evaluateNumber(expr.right, expr.operator);
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return checkNumber(expr.operator, left)
+                < checkNumber(expr.operator, right);
+        }
+    }
+
+    private static final class LessEqualNumbers extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            return evaluateLeft(interpreter, expr)
+                <= interpreter.evaluateNumber(expr.right, expr.operator);
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return checkNumber(expr.operator, left)
+                <= checkNumber(expr.operator, right);
+        }
+    }
+
+    private static final class GreaterThanNumbers extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            return evaluateLeft(interpreter, expr)
+                > interpreter.evaluateNumber(expr.right, expr.operator);
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return checkNumber(expr.operator, left)
+                > checkNumber(expr.operator, right);
+        }
+    }
+
+    private static final class GreaterEqualNumbers extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            return evaluateLeft(interpreter, expr)
+                >= interpreter.evaluateNumber(expr.right, expr.operator);
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return checkNumber(expr.operator, left)
+                >= checkNumber(expr.operator, right);
+        }
+    }
+
+    // Equality
+
+    private static final class Equal extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            return Interpreter.isEqual(interpreter.evaluate(expr.left),
+                interpreter.evaluate(expr.right));
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return Interpreter.isEqual(left, right);
+        }
+    }
+
+    private static final class NotEqual extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            return !Interpreter.isEqual(interpreter.evaluate(expr.left),
+                interpreter.evaluate(expr.right));
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return !Interpreter.isEqual(left, right);
+        }
+    }
+
+    // Handles every operator and every operand type, with the full checks.
+    private static final class Generic extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            Object left = interpreter.evaluate(expr.left);
+            Object right = interpreter.evaluate(expr.right);
+            return apply(expr, left, right);
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            switch (expr.operator.type) {
+                case BANG_EQUAL -> {
+                    return !Interpreter.isEqual(left, right);
+                }
+                case EQUAL_EQUAL -> {
+                    return Interpreter.isEqual(left, right);
+                }
+                case PLUS -> {
+                    if (left instanceof Double) {
+                        if (right instanceof Double)
+                            return DoubleCache.valueOf((double)left + (double)right);
+                        else if (PulseString.isString(right))
+                            return PulseString.concat(left.toString(), (CharSequence)right);
+                    } else if (PulseString.isString(left)) {
+                        if (right instanceof Double)
+                            return PulseString.concat((CharSequence)left, right.toString());
+                        else if (PulseString.isString(right))
+                            return PulseString.concat((CharSequence)left, (CharSequence)right);
+                    }
+                    throw new RuntimeError(expr.operator,
+                        "Operands must be two numbers or two strings.");
+                }
+                case MINUS -> {
+                    return SUBTRACT_NUMBERS.apply(expr, left, right);
+                }
+                case STAR -> {
+                    return MULTIPLY_NUMBERS.apply(expr, left, right);
+                }
+                case SLASH -> {
+                    return DIVIDE_NUMBERS.apply(expr, left, right);
+                }
+                case LESS -> {
+                    return LESS_THAN_NUMBERS.apply(expr, left, right);
+                }
+                case LESS_EQUAL -> {
+                    return LESS_EQUAL_NUMBERS.apply(expr, left, right);
+                }
+                case GREATER -> {
+                    return GREATER_THAN_NUMBERS.apply(expr, left, right);
+                }
+                case GREATER_EQUAL -> {
+                    return GREATER_EQUAL_NUMBERS.apply(expr, left, right);
+                }
+            }
+
+            // Unreachable.
+            return null;
+        }
+
+        @Override
+        double executeNumber(Interpreter interpreter, Expr.Binary expr) {
+            Object value = execute(interpreter, expr);
+            return checkNumber(expr.operator, value);
+        }
+    }
+}
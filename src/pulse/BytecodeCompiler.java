@@ -0,0 +1,557 @@
+/*
+ * Compiles the syntax tree to bytecode for the pulse.vm backend.
+ *  - One pass over the tree; each node emits code for its children first,
+ *    then its own instruction, leaving its value on the VM's stack.
+ *  - Locals live on the stack in declaration order, so a local's slot is
+ *    its index in the current function's locals.
+ *  - A local of an enclosing function is reached through an upvalue; a
+ *    function that has any is wrapped in a closure when it's declared.
+ */
+
+package pulse;
+
+import pulse.vm.Chunk;
+import pulse.vm.CompiledFunction;
+import pulse.vm.OpCode;
+import pulse.vm.VM;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_SHORT = 0xffff;
+
+    private static class Local {
+        final Symbol name;
+        final int depth;
+        // some closure refers to it, so it's closed over, not just popped
+        boolean captured = false;
+
+        Local(Symbol name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    // where a closure finds a captured variable when it's created
+    private record Upvalue(boolean isLocal, int index) {}
+
+    private enum FunctionType { SCRIPT, FUNCTION }
+
+    // the function currently being compiled
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final FunctionType type;
+        final Chunk chunk = new Chunk();
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        // elements of the literals being compiled that are on the stack,
+        // and the most there ever are; a literal can hold up to 65535
+        // values, far more than a frame's fixed share of the stack
+        int literalSlots = 0;
+        int maxLiteralSlots = 0;
+
+        FunctionState(FunctionState enclosing, FunctionType type) {
+            this.enclosing = enclosing;
+            this.type = type;
+        }
+    }
+
+    private final VM vm;
+    private FunctionState current;
+    // line of the node being compiled, for instructions without a token
+    private int line = 1;
+
+    BytecodeCompiler(VM vm) {
+        this.vm = vm;
+    }
+
+    CompiledFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null, FunctionType.SCRIPT);
+        for (Stmt statement : statements)
+            compile(statement);
+        emitReturn();
+        return new CompiledFunction("script", 0, 0, current.chunk,
+            current.maxLiteralSlots);
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    // Emitting
+
+    private void emit(byte op) {
+        current.chunk.write(op, line);
+    }
+    private void emit(byte op, int operand) {
+        emit(op);
+        current.chunk.write(operand, line);
+    }
+    private void emitShort(byte op, int operand) {
+        emit(op);
+        current.chunk.write((operand >> 8) & 0xff, line);
+        current.chunk.write(operand & 0xff, line);
+    }
+    private void emitConstant(Object value) {
+        int index = current.chunk.addConstant(value);
+        if (index > MAX_SHORT)
+            Pulse.error(line, "Too many constants in one chunk.");
+        emitShort(OpCode.CONSTANT, index);
+    }
+    private void emitReturn() {
+        emit(OpCode.NIL);
+        emit(OpCode.RETURN);
+    }
+
+    // emits a forward jump with a placeholder offset, returns its operand
+    private int emitJump(byte op) {
+        emitShort(op, MAX_SHORT);
+        return current.chunk.count() - 2;
+    }
+    private void patchJump(int operand) {
+        int offset = current.chunk.count() - operand - 2;
+        if (offset > MAX_SHORT)
+            Pulse.error(line, "Too much code to jump over.");
+        current.chunk.patch(operand, offset);
+    }
+    private void emitLoop(int loopStart) {
+        // +3 skips the LOOP instruction itself
+        int offset = current.chunk.count() - loopStart + 3;
+        if (offset > MAX_SHORT)
+            Pulse.error(line, "Loop body too large.");
+        emitShort(OpCode.LOOP, offset);
+    }
+
+    // a literal has pushed `count` more of its values
+    private void pushLiteralSlots(int count) {
+        current.literalSlots += count;
+        current.maxLiteralSlots = Math.max(current.maxLiteralSlots,
+            current.literalSlots);
+    }
+
+    // Scopes
+
+    private void beginScope() {
+        ++current.scopeDepth;
+    }
+    private void endScope() {
+        --current.scopeDepth;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty()
+                && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            if (locals.get(locals.size() - 1).captured)
+                emit(OpCode.CLOSE_UPVALUE);
+            else
+                emit(OpCode.POP);
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    // the value to bind is on top of the stack
+    private void defineVariable(Token name) {
+        line = name.line;
+        if (isGlobalScope()) {
+            emitShort(OpCode.DEFINE_GLOBAL, vm.globalSlot(name.lexeme));
+            return;
+        }
+
+        // redeclaring a name in the same scope reuses its slot
+        int slot = declaredInScope(name);
+        if (slot >= 0) {
+            emit(OpCode.SET_LOCAL, slot);
+            emit(OpCode.POP);
+            return;
+        }
+        addLocal(name);
+    }
+    // slot of name if the innermost scope already declares it, or -1
+    private int declaredInScope(Token name) {
+        List<Local> locals = current.locals;
+        for (int i = locals.size() - 1; i >= 0; --i) {
+            Local local = locals.get(i);
+            if (local.depth < current.scopeDepth)
+                break;
+            if (local.name == name.symbol)
+                return i;
+        }
+        return -1;
+    }
+    private boolean isGlobalScope() {
+        return current.scopeDepth == 0 && current.type == FunctionType.SCRIPT;
+    }
+    private void addLocal(Token name) {
+        if (current.locals.size() == MAX_LOCALS) {
+            Pulse.error(name, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name.symbol, current.scopeDepth));
+    }
+    private int resolveLocal(Token name) {
+        return resolveLocal(current, name);
+    }
+    private static int resolveLocal(FunctionState function, Token name) {
+        List<Local> locals = function.locals;
+        for (int i = locals.size() - 1; i >= 0; --i) {
+            if (locals.get(i).name == name.symbol)
+                return i;
+        }
+        return -1;
+    }
+    // index of name among function's upvalues (adding it, and to every
+    // function in between, the first time), or -1 if no enclosing function
+    // has a local by that name
+    private int resolveUpvalue(FunctionState function, Token name) {
+        if (function.enclosing == null)
+            return -1;
+
+        int local = resolveLocal(function.enclosing, name);
+        if (local >= 0) {
+            function.enclosing.locals.get(local).captured = true;
+            return addUpvalue(function, new Upvalue(true, local));
+        }
+
+        int upvalue = resolveUpvalue(function.enclosing, name);
+        if (upvalue >= 0)
+            return addUpvalue(function, new Upvalue(false, upvalue));
+        return -1;
+    }
+    private int addUpvalue(FunctionState function, Upvalue upvalue) {
+        int index = function.upvalues.indexOf(upvalue);
+        if (index >= 0)
+            return index;
+        if (function.upvalues.size() == MAX_LOCALS) {
+            Pulse.error(line, "Too many closure variables in function.");
+            return 0;
+        }
+        function.upvalues.add(upvalue);
+        return function.upvalues.size() - 1;
+    }
+
+    // Statements
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements)
+            compile(statement);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // a local function's slot is taken before its body is compiled, so
+        // the body can refer to it (and capture it) to call itself; the
+        // closure is then pushed right into that slot
+        int redeclared = -1;
+        boolean local = !isGlobalScope();
+        if (local) {
+            redeclared = declaredInScope(stmt.name);
+            if (redeclared < 0)
+                addLocal(stmt.name);
+        }
+
+        FunctionState function = new FunctionState(current, FunctionType.FUNCTION);
+        current = function;
+        beginScope();
+        for (Token param : stmt.params)
+            addLocal(param);
+        for (Stmt statement : stmt.body)
+            compile(statement);
+        line = stmt.name.line;
+        emitReturn();
+        current = function.enclosing;
+
+        line = stmt.name.line;
+        CompiledFunction compiled = new CompiledFunction(stmt.name.lexeme,
+            stmt.params.size(), function.upvalues.size(), function.chunk,
+            function.maxLiteralSlots);
+        if (function.upvalues.isEmpty()) {
+            emitConstant(compiled);
+        } else {
+            int index = current.chunk.addConstant(compiled);
+            if (index > MAX_SHORT)
+                Pulse.error(line, "Too many constants in one chunk.");
+            emitShort(OpCode.CLOSURE, index);
+            for (Upvalue upvalue : function.upvalues) {
+                current.chunk.write(upvalue.isLocal ? 1 : 0, line);
+                current.chunk.write(upvalue.index, line);
+            }
+        }
+
+        if (!local) {
+            defineVariable(stmt.name);
+        } else if (redeclared >= 0) {
+            emit(OpCode.SET_LOCAL, redeclared);
+            emit(OpCode.POP);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emit(OpCode.POP);
+        if (stmt.elseBranch != null)
+            compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (current.type == FunctionType.SCRIPT)
+            Pulse.error(stmt.keyword, "Can't return from top-level code.");
+
+        if (stmt.value == null) {
+            emit(OpCode.NIL);
+        } else if (stmt.value instanceof Expr.Call call
+                && current.type == FunctionType.FUNCTION) {
+            compileCall(call, OpCode.TAIL_CALL);
+            line = stmt.keyword.line;
+        } else {
+            compile(stmt.value);
+            line = stmt.keyword.line;
+        }
+        emit(OpCode.RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // the initializer is compiled first, so `var a = a;` in a block
+        // still reads the outer a
+        if (stmt.initializer != null)
+            compile(stmt.initializer);
+        else
+            emit(OpCode.NIL);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.chunk.count();
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    // Expressions
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        int slot = resolveLocal(expr.name);
+        if (slot >= 0) {
+            emit(OpCode.SET_LOCAL, slot);
+            return null;
+        }
+        int upvalue = resolveUpvalue(current, expr.name);
+        if (upvalue >= 0)
+            emit(OpCode.SET_UPVALUE, upvalue);
+        else
+            emitShort(OpCode.SET_GLOBAL, vm.globalSlot(expr.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG_EQUAL -> {
+                emit(OpCode.EQUAL);
+                emit(OpCode.NOT);
+            }
+            case EQUAL_EQUAL   -> emit(OpCode.EQUAL);
+            case GREATER       -> emit(OpCode.GREATER);
+            case GREATER_EQUAL -> emit(OpCode.GREATER_EQUAL);
+            case LESS          -> emit(OpCode.LESS);
+            case LESS_EQUAL    -> emit(OpCode.LESS_EQUAL);
+            case SLASH         -> emit(OpCode.DIVIDE);
+            case STAR          -> emit(OpCode.MULTIPLY);
+            case MINUS         -> emit(OpCode.SUBTRACT);
+            case PLUS          -> emit(OpCode.ADD);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compileCall(expr, OpCode.CALL);
+        return null;
+    }
+
+    private void compileCall(Expr.Call expr, byte opCode) {
+        compile(expr.callee);
+        for (Expr argument : expr.arguments)
+            compile(argument);
+
+        line = expr.paren.line;
+        emit(opCode, expr.arguments.size());
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null)
+            emit(OpCode.NIL);
+        else if (expr.value.equals(true))
+            emit(OpCode.TRUE);
+        else if (expr.value.equals(false))
+            emit(OpCode.FALSE);
+        else
+            emitConstant(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.operator.line;
+
+        if (expr.operator.type == TokenType.OR) {
+            // OR: keep a truthy left, otherwise evaluate the right
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            // AND: keep a falsey left, otherwise evaluate the right
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        Expr.Subscript subscript = (Expr.Subscript)expr.object;
+        compile(subscript.object);
+        compile(subscript.value);
+        compile(expr.right);
+
+        line = expr.name.line;
+        emit(OpCode.SET_INDEX);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG  -> emit(OpCode.NOT);
+            case MINUS -> emit(OpCode.NEGATE);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        int slot = resolveLocal(expr.name);
+        if (slot >= 0) {
+            emit(OpCode.GET_LOCAL, slot);
+            return null;
+        }
+        int upvalue = resolveUpvalue(current, expr.name);
+        if (upvalue >= 0)
+            emit(OpCode.GET_UPVALUE, upvalue);
+        else
+            emitShort(OpCode.GET_GLOBAL, vm.globalSlot(expr.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        int count = 0;
+        if (expr.values != null) {
+            for (Expr value : expr.values) {
+                compile(value);
+                pushLiteralSlots(1);
+            }
+            count = expr.values.size();
+        }
+        current.literalSlots -= count;
+        if (count > MAX_SHORT)
+            Pulse.error(line, "Too many elements in array literal.");
+        emitShort(OpCode.ARRAY, count);
+        return null;
+    }
+
+    @Override
+    public Void visitSubscriptExpr(Expr.Subscript expr) {
+        compile(expr.object);
+        compile(expr.value);
+
+        line = expr.name.line;
+        emit(OpCode.GET_INDEX);
+        return null;
+    }
+
+    @Override
+    public Void visitMapExpr(Expr.Map expr) {
+        for (int i = 0; i < expr.keys.size(); ++i) {
+            compile(expr.keys.get(i));
+            pushLiteralSlots(1);
+            compile(expr.values.get(i));
+            pushLiteralSlots(1);
+        }
+        current.literalSlots -= 2 * expr.keys.size();
+        line = expr.brace.line;
+        if (expr.keys.size() > MAX_SHORT)
+            Pulse.error(line, "Too many entries in map literal.");
+        emitShort(OpCode.MAP, expr.keys.size());
+        return null;
+    }
+}
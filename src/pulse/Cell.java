@@ -0,0 +1,15 @@
+package pulse;
+
+// Box for a local variable some closure captures.
+//  - The declaring frame's slot holds the Cell instead of the value, and
+//    every closure that captures it shares the same Cell, so assignments
+//    are seen on both sides.
+//  - Locals nothing captures are never put in one.
+//  - Every global variable is one too, see Environment.
+final class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
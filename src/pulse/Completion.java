@@ -0,0 +1,14 @@
+package pulse;
+
+// How a statement finished. Executing a `return` doesn't throw; it
+// completes with RETURN and leaves the value in the Interpreter, and
+// every enclosing statement stops and passes RETURN up to the call.
+// A `return f(...)` the Resolver marked as a tail call completes with
+// TAIL_CALL instead, leaving the call to make in the Interpreter, and the
+// function being left makes it (see PulseFunction.invoke) once its own
+// Java frames are gone.
+enum Completion {
+    NORMAL,
+    RETURN,
+    TAIL_CALL
+}
@@ -0,0 +1,111 @@
+package pulse;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Natives for running Pulse functions at the same time:
+//   spawn(fn)          calls fn (no parameters) on a thread of its own and
+//                      returns a task
+//   join(task)         waits for the task, and returns what fn returned or
+//                      raises the runtime error it stopped with
+//   channel(capacity)  a bounded channel, see PulseChannel
+//   send(ch, value)    waits for room, then adds value
+//   receive(ch)        waits for a value, then takes it
+//  - Tasks run on virtual threads when the JVM has them (21 and later),
+//    so thousands of tasks blocked on channels cost little. Older JVMs
+//    run them on a pool of daemon platform threads instead.
+//  - Each task gets an Interpreter of its own (call stack, return value,
+//    depth) over the spawner's globals and output. Globals behave like
+//    Java fields: no write is ever lost, and a task is sure to see
+//    another's writes once a send/receive or a join orders them.
+//  - Tasks are daemons: whatever hasn't been joined when the script ends
+//    is dropped, output and errors included.
+final class Concurrency {
+    private static final ExecutorService executor = newExecutor();
+
+    private Concurrency() {}
+
+    // what spawn() returns
+    private static final class Task {
+        private final Future<Object> future;
+
+        Task(Future<Object> future) {
+            this.future = future;
+        }
+
+        @Override
+        public String toString() {
+            return "<task>";
+        }
+    }
+
+    static void defineNatives(Environment globals) {
+        globals.define("spawn", new PulseNative(1, Concurrency::spawn));
+        globals.define("join", new PulseNative(1, Concurrency::join));
+        globals.define("channel", new PulseNative(1, (interpreter, arguments) ->
+            new PulseChannel(capacity(arguments[0]))));
+        globals.define("send", new PulseNative(2, (interpreter, arguments) -> {
+            channel(arguments[0]).send(arguments[1]);
+            return null;
+        }));
+        globals.define("receive", new PulseNative(1, (interpreter, arguments) ->
+            channel(arguments[0]).receive()));
+    }
+
+    private static Object spawn(Interpreter interpreter, Object[] arguments) {
+        if (!(arguments[0] instanceof PulseCallable function)
+                || function.arity() != 0)
+            throw new RuntimeError("Can only spawn a function with no parameters.");
+
+        Interpreter task = new Interpreter(interpreter);
+        return new Task(executor.submit(() -> function.call(task, new Object[0])));
+    }
+
+    private static Object join(Interpreter interpreter, Object[] arguments)
+            throws InterruptedException {
+        if (!(arguments[0] instanceof Task task))
+            throw new RuntimeError("Can only join a task.");
+
+        try {
+            return task.future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException exception)
+                throw exception;
+            if (cause instanceof Error error)
+                throw error;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static int capacity(Object value) {
+        if (!(value instanceof Double number)
+                || number != Math.floor(number) || number < 1
+                || number > Integer.MAX_VALUE)
+            throw new RuntimeError("Channel capacity must be a positive whole number.");
+        return (int)(double)number;
+    }
+
+    private static PulseChannel channel(Object value) {
+        if (value instanceof PulseChannel channel)
+            return channel;
+        throw new RuntimeError("Operand must be a channel.");
+    }
+
+    // a virtual thread per task where there are virtual threads; looked
+    // up reflectively so Pulse still builds and runs on Java 17
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService)Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "pulse-task");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package pulse;
+
+// Boxed Doubles for small integral values, like Integer.valueOf's cache.
+// Loop counters and array indexes rarely leave this range, so most
+// arithmetic results that escape into a variable don't allocate.
+final class DoubleCache {
+    private static final int LOW = -128;
+    private static final int HIGH = 1023;
+    private static final Double[] cache = new Double[HIGH - LOW + 1];
+
+    static {
+        for (int i = 0; i < cache.length; ++i)
+            cache[i] = (double)(i + LOW);
+    }
+
+    private DoubleCache() {}
+
+    static Double valueOf(double value) {
+        int i = (int)value;
+        // -0.0 == 0 but prints differently, so it never comes from the cache
+        if (i == value && i >= LOW && i <= HIGH
+                && (i != 0 || Double.doubleToRawLongBits(value) == 0))
+            return cache[i - LOW];
+        return value;
+    }
+}
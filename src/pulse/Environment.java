@@ -1,48 +1,142 @@
 package pulse;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 // A node in a linked list of environments
+//  - Local scopes are fixed-size frames; the Resolver gives every local
+//    a slot, so a lookup is just an array index.
+//  - A global scope numbers its variables itself, densely, in the order
+//    the Resolver meets their names, so a global is an array index too
+//    and the scope only ever holds the globals its code uses.
+//  - Every global is a Cell of its own. Making room for more copies the
+//    array of Cells but never moves a value, so a task (see Concurrency)
+//    assigning a global while new code is resolved can't lose its write.
+//    It also lets two global scopes share a variable under different
+//    slots, see link().
 class Environment {
-    private final Map<String, Object> values = new HashMap<>();
+    // marks a global that has a slot but hasn't been defined yet
+    private static final Object UNDEFINED = new Object();
+
+    // global names and the slots they were given
+    private static final class Names {
+        final Map<Symbol, Integer> slots = new HashMap<>();
+        final List<Symbol> symbols = new ArrayList<>();
+    }
+
+    private final Object[] values; // local slots
+    private volatile Cell[] cells; // global variables, by slot
+    private final Names names; // null for a local scope
     final Environment enclosing; // next
 
     Environment() {
         this.enclosing = null; // global scope
+        this.values = null;
+        this.cells = new Cell[16];
+        this.names = new Names();
     }
 
-    Environment(Environment enclosing) {
+    Environment(Environment enclosing, int size) {
         this.enclosing = enclosing; // nested local scope
+        this.values = new Object[size];
+        this.names = null;
+        if (Metrics.ENABLED)
+            Metrics.environmentCreated();
+    }
+
+    // frame that takes over already-filled slots (call arguments)
+    Environment(Environment enclosing, Object[] values) {
+        this.enclosing = enclosing;
+        this.values = values;
+        this.names = null;
+        if (Metrics.ENABLED)
+            Metrics.environmentCreated();
+    }
+
+    void define(int slot, Object value) {
+        if (enclosing == null)
+            cells[slot].value = value;
+        else
+            values[slot] = value;
+    }
+
+    Object getAt(int depth, int slot) {
+        return ancestor(depth).values[slot];
+    }
+
+    void assignAt(int depth, int slot, Object value) {
+        ancestor(depth).values[slot] = value;
+    }
+
+    private Environment ancestor(int depth) {
+        Environment environment = this;
+        for (int i = 0; i < depth; ++i)
+            environment = environment.enclosing;
+        return environment;
+    }
+
+    // Globals
+
+    // slot for a global name, giving it the next one the first time
+    synchronized int slotOf(Symbol name) {
+        Integer slot = names.slots.get(name);
+        if (slot != null)
+            return slot;
+        return add(name, new Cell(UNDEFINED));
+    }
+
+    private int add(Symbol name, Cell cell) {
+        int slot = names.symbols.size();
+        names.symbols.add(name);
+        names.slots.put(name, slot);
+        Cell[] cells = this.cells;
+        if (slot == cells.length)
+            cells = Arrays.copyOf(cells, slot * 2);
+        // nothing reads the new slot before it's published
+        cells[slot] = cell;
+        this.cells = cells;
+        return slot;
+    }
+
+    // every global name, by slot
+    synchronized Symbol[] names() {
+        return names.symbols.toArray(new Symbol[0]);
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme))
-            return values.get(name.lexeme);
+    // A global scope for code resolved against another one, whose slot i
+    // is this scope's variable names[i] (defined or not): what the code
+    // reads and assigns are this scope's globals.
+    synchronized Environment link(Symbol[] names) {
+        Environment linked = new Environment();
+        for (Symbol name : names)
+            linked.add(name, cells[slotOf(name)]);
+        return linked;
+    }
 
-        if (enclosing != null)
-            return enclosing.get(name);
+    void define(String name, Object value) {
+        define(slotOf(Symbol.intern(name)), value);
+    }
+
+    Object getGlobal(int slot, Token name) {
+        Object value = cells[slot].value;
+        if (value != UNDEFINED)
+            return value;
 
         throw new RuntimeError(name,
             "Undefined variable '" + name.lexeme + "'.");
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-
-        if (enclosing != null) {
-            enclosing.assign(name, value);
+    void assignGlobal(int slot, Token name, Object value) {
+        Cell cell = cells[slot];
+        if (cell.value != UNDEFINED) {
+            cell.value = value;
             return;
         }
 
         throw new RuntimeError(name,
             "Undefined variable '" + name.lexeme + "'.");
     }
-
-    void define(String name, Object value) {
-        values.put(name, value);
-    }
 }
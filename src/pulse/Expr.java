@@ -17,6 +17,7 @@ abstract class Expr {
         R visitVariableExpr(Variable expr);
         R visitArrayExpr(Array expr);
         R visitSubscriptExpr(Subscript expr);
+        R visitMapExpr(Map expr);
     }
 
     static class Assign extends Expr {
@@ -28,6 +29,10 @@ abstract class Expr {
         final Token name;
         final Expr value;
 
+        int depth;
+        int slot;
+        boolean captured;
+
         Assign(Token name, Expr value) {
             this.name = name;
             this.value = value;
@@ -44,6 +49,9 @@ abstract class Expr {
         final Token operator;
         final Expr right;
 
+        boolean numeric;
+        BinaryNode node = BinaryNode.UNINITIALIZED;
+
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
             this.operator = operator;
@@ -61,6 +69,8 @@ abstract class Expr {
         final Token paren;
         final List<Expr> arguments;
 
+        Stmt.Function cachedDeclaration;
+
         Call(Expr callee, Token paren, List<Expr> arguments) {
             this.callee = callee;
             this.paren = paren;
@@ -137,6 +147,8 @@ abstract class Expr {
         final Token operator;
         final Expr right;
 
+        boolean numeric;
+
         Unary(Token operator, Expr right) {
             this.operator = operator;
             this.right = right;
@@ -151,6 +163,10 @@ abstract class Expr {
 
         final Token name;
 
+        int depth;
+        int slot;
+        boolean captured;
+
         Variable(Token name) {
             this.name = name;
         }
@@ -186,4 +202,21 @@ abstract class Expr {
         }
     }
 
+    static class Map extends Expr {
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitMapExpr(this);
+        }
+
+        final Token brace;
+        final List<Expr> keys;
+        final List<Expr> values;
+
+        Map(Token brace, List<Expr> keys, List<Expr> values) {
+            this.brace = brace;
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
 }
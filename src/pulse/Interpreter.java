@@ -5,132 +5,170 @@
 
 package pulse;
 
-import java.util.ArrayList;
 import java.util.List;
 
 class Interpreter implements Expr.Visitor<Object>,
-                             Stmt.Visitor<Void> {
-    final Environment globals = new Environment();
+                             Stmt.Visitor<Completion> {
+    // the global scope of the code running: this interpreter's own, or
+    // one linked to it (see run() and PulseFunction)
+    Environment globals;
     // The current environment (innermost scope):
-    private Environment environment = globals;
+    private Environment environment;
+    // value of the `return` that completed with Completion.RETURN
+    private Object returnValue = null;
+    // what the running function captured (its closure), see Resolver
+    private Cell[] captures = null;
+    // the call a Completion.TAIL_CALL leaves for its function to make
+    private PulseFunction tailFunction = null;
+    private Object[] tailFrame = null;
+    // Pulse calls in progress, and how many there may be (tail calls
+    // don't count; they don't nest)
+    private int depth = 0;
+    private int maxDepth = Integer.MAX_VALUE;
+    // where `print` writes
+    private Output output;
+    // follows the Pulse call stack with --profile; null otherwise
+    Profiler profiler = null;
 
     Interpreter() {
-        globals.define("clock", new PulseCallable() {
-            @Override
-            public int arity() { return 0; }
-
-            @Override
-            public Object call(Interpreter interpreter,
-                               List<Object> arguments) {
-                return (double)System.currentTimeMillis()/1000.0;
-            }
+        globals = new Environment();
+        environment = globals;
+        output = Output.standard();
+        globals.define("clock", new PulseNative(0, (interpreter, arguments) ->
+            (double)System.currentTimeMillis()/1000.0));
+        Concurrency.defineNatives(globals);
+        Parallel.defineNatives(globals);
+    }
+
+    // an interpreter for a task spawned by parent: a call stack of its
+    // own over the same globals and output
+    Interpreter(Interpreter parent) {
+        globals = parent.globals;
+        environment = globals;
+        output = parent.output;
+        maxDepth = parent.maxDepth;
+    }
 
-            @Override
-            public String toString() { return "<native fn>"; }
-        });
+    // a call nested deeper than this is a "Stack overflow." runtime error
+    // rather than whatever the Java stack allows
+    void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    void setOutput(Output output) {
+        this.output = output;
     }
 
     void interpret(List<Stmt> statements) {
         try {
-            for (Stmt statement : statements) {
-                execute(statement);
-            }
+            run(statements);
         } catch (RuntimeError error) {
             Pulse.runtimeError(error);
         }
     }
 
+    // like interpret(), but a runtime error is thrown to the caller
+    void run(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            execute(statement);
+        }
+    }
+
+    // like run(), for statements resolved against globals, a scope
+    // linked to this interpreter's (see Environment.link())
+    void run(List<Stmt> statements, Environment globals) {
+        Environment previous = this.globals;
+        this.globals = globals;
+        environment = globals;
+        try {
+            run(statements);
+        } finally {
+            this.globals = previous;
+            environment = previous;
+        }
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        if (expr.depth == Resolver.GLOBAL)
+            globals.assignGlobal(expr.slot, expr.name, value);
+        else if (expr.depth == Resolver.UPVALUE)
+            captures[expr.slot].value = value;
+        else if (expr.captured)
+            ((Cell)environment.getAt(expr.depth, expr.slot)).value = value;
+        else
+            environment.assignAt(expr.depth, expr.slot, value);
         return value;
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-
-        switch (expr.operator.type) {
-            case BANG_EQUAL -> {
-                return !isEqual(left, right);
-            }
-            case EQUAL_EQUAL -> {
-                return isEqual(left, right);
-            }
-            case GREATER -> {
-                // add support for strings?
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left > (double)right;
-            }
-            case GREATER_EQUAL -> {
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left >= (double)right;
-            }
-            case LESS -> {
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left < (double)right;
-            }
-            case LESS_EQUAL -> {
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left <= (double)right;
-            }
-            case SLASH -> {
-                checkNumberOperands(expr.operator, left, right);
-                if ((double)right == 0)
-                    throw new RuntimeError(expr.operator,
-                        "Division by zero");
-                return (double)left / (double)right;
-            }
-            case STAR -> {
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
-            }
-            case MINUS -> {
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
-            }
-            case PLUS -> {
-                if (left instanceof Double) {
-                    if (right instanceof Double)
-                        return (double)left + (double)right;
-                    else if (right instanceof String)
-                        return left.toString() + right;
-                } else if (left instanceof String) {
-                    if (right instanceof Double)
-                        return left + right.toString();
-                    else if (right instanceof String)
-                        return (String)left + right;
-                }
-                throw new RuntimeError(expr.operator,
-                    "Operands must be two numbers or two strings.");
-            }
+        // expr.node specializes itself on first use, see BinaryNode
+        if (expr.numeric) {
+            // arithmetic stays on primitive doubles all the way down,
+            // and is only boxed here, where its value escapes
+            return DoubleCache.valueOf(expr.node.executeNumber(this, expr));
         }
-
-        return null;
+        return expr.node.execute(this, expr);
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        return call(expr, evaluate(expr.callee));
+    }
+
+    private Object call(Expr.Call expr, Object callee) {
+        if (depth == maxDepth)
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        ++depth;
+        try {
+            return callFunction(expr, callee);
+        } catch (StackOverflowError error) {
+            // the Java stack ran out first: report it on the innermost
+            // call, like any other runtime error
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        } finally {
+            --depth;
+        }
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments)
-            arguments.add(evaluate(argument));
+    private Object callFunction(Expr.Call expr, Object callee) {
+        // Inline cache: nearly every call site always calls the same
+        // function. Once it has been checked, seeing a function of the same
+        // declaration again is enough (its arity can't change), and the
+        // arguments go straight into the new frame. It holds the
+        // declaration rather than the function value, so it's the same for
+        // every closure and every PulseEngine context running the tree.
+        if (callee instanceof PulseFunction function
+                && function.declaration() == expr.cachedDeclaration)
+            return function.invoke(this, evaluateArguments(expr, function));
+
+        Object[] arguments = new Object[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; ++i)
+            arguments[i] = evaluate(expr.arguments.get(i));
 
         if (!(callee instanceof PulseCallable function)) {
             throw new RuntimeError(expr.paren,
                 "Can only call functions and classes.");
         }
 
-        if (arguments.size() != function.arity()) {
+        if (arguments.length != function.arity()) {
             throw new RuntimeError(expr.paren,
                 "Expected " + function.arity()
-                    + " arguments but got " + arguments.size() + ".");
+                    + " arguments but got " + arguments.length + ".");
         }
 
-        return function.call(this, arguments);
+        if (function instanceof PulseFunction pulseFunction)
+            expr.cachedDeclaration = pulseFunction.declaration();
+
+        try {
+            return function.call(this, arguments);
+        } catch (RuntimeError error) {
+            if (error.token == null)
+                throw new RuntimeError(expr.paren, error.getMessage());
+            throw error;
+        }
     }
 
     @Override
@@ -161,25 +199,36 @@ class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitSetExpr(Expr.Set expr) {
-        if (expr.object instanceof Expr.Subscript) {
-
-            List<Object> list = (List<Object>)evaluate(((Expr.Subscript)expr.object).object);
-
-            Object indexObject = evaluate(((Expr.Subscript)expr.object).value);
-
-            int index = ((Double)indexObject).intValue();
-            if (index >= list.size()) {
-                throw new RuntimeError(expr.name,
-                    "Array index out of range.");
-            }
-
-            list.set(index, evaluate(expr.right));
+        Expr.Subscript subscript = (Expr.Subscript)expr.object;
+        Object object = evaluate(subscript.object);
+        if (object instanceof PulseMap map) {
+            Object key = evaluateKey(subscript);
+            map.put(key, evaluate(expr.right));
+            return null;
+        }
+        PulseArray array = checkArray(subscript, object);
+        int index = evaluateIndex(subscript, array);
+
+        // keep numbers unboxed on their way into a numeric array
+        if (array.isNumeric() && Resolver.isNumeric(expr.right)) {
+            array.setNumber(index, evaluateNumber(expr.right, expr.name));
+        } else if (expr.right instanceof Expr.Subscript source) {
+            Object sourceObject = evaluate(source.object);
+            if (sourceObject instanceof PulseArray sourceArray)
+                array.set(index, sourceArray, evaluateIndex(source, sourceArray));
+            else
+                array.set(index, subscript(source, sourceObject));
+        } else {
+            array.set(index, evaluate(expr.right));
         }
         return null;
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if (expr.numeric)
+            return DoubleCache.valueOf(-evaluateNumber(expr.right, expr.operator));
+
         Object right = evaluate(expr.right);
 
         switch (expr.operator.type) {
@@ -188,7 +237,7 @@ class Interpreter implements Expr.Visitor<Object>,
             }
             case MINUS -> {
                 checkNumberOperand(expr.operator, right);
-                return -(double)right;
+                return DoubleCache.valueOf(-(double)right);
             }
         }
 
@@ -198,28 +247,73 @@ class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return environment.get(expr.name);
+        if (expr.depth == Resolver.GLOBAL)
+            return globals.getGlobal(expr.slot, expr.name);
+        if (expr.depth == Resolver.UPVALUE)
+            return captures[expr.slot].value;
+        Object value = environment.getAt(expr.depth, expr.slot);
+        return expr.captured ? ((Cell)value).value : value;
     }
 
     @Override
     public Object visitArrayExpr(Expr.Array expr) {
-        List<Object> values = new ArrayList<>();
-        if (expr.values != null) {
-            for (Expr value : expr.values)
-                values.add(evaluate(value));
+        if (expr.values == null)
+            return new PulseArray(0);
+
+        PulseArray array = new PulseArray(expr.values.size());
+        for (int i = 0; i < expr.values.size(); ++i)
+            array.set(i, evaluate(expr.values.get(i)));
+        return array;
+    }
+
+    @Override
+    public Object visitMapExpr(Expr.Map expr) {
+        PulseMap map = new PulseMap();
+        for (int i = 0; i < expr.keys.size(); ++i) {
+            Object key = evaluate(expr.keys.get(i));
+            if (!PulseMap.isKey(key))
+                throw new RuntimeError(expr.brace,
+                    "Map keys must be strings or numbers.");
+            map.put(key, evaluate(expr.values.get(i)));
         }
-        return values;
+        return map;
     }
 
     @Override
     public Object visitSubscriptExpr(Expr.Subscript expr) {
-        List<Object> list = null;
-        try {
-            list = (List<Object>)evaluate(expr.object);
-        } catch (Exception e) {
-            throw new RuntimeError(expr.name, "Only arrays can be subscripted");
+        return subscript(expr, evaluate(expr.object));
+    }
+
+    // object[index], object being what expr.object evaluated to
+    private Object subscript(Expr.Subscript expr, Object object) {
+        if (object instanceof PulseMap map) {
+            // a number key is looked up without boxing it
+            if (Resolver.isNumeric(expr.value))
+                return map.get(evaluateNumber(expr.value, expr.name));
+            return map.get(evaluateKey(expr));
         }
+        PulseArray array = checkArray(expr, object);
+        return array.get(evaluateIndex(expr, array));
+    }
+
+    private PulseArray checkArray(Expr.Subscript expr, Object object) {
+        if (object instanceof PulseArray array)
+            return array;
+        throw new RuntimeError(expr.name,
+            "Only arrays and maps can be subscripted");
+    }
+
+    // the subscript's index, as a map key
+    private Object evaluateKey(Expr.Subscript expr) {
+        Object key = evaluate(expr.value);
+        if (PulseMap.isKey(key))
+            return key;
+        throw new RuntimeError(expr.name,
+            "Map keys must be strings or numbers.");
+    }
 
+    // the subscript's index, checked against the array's bounds
+    private int evaluateIndex(Expr.Subscript expr, PulseArray array) {
         Object indexObject = evaluate(expr.value);
         if (!(indexObject instanceof Double)) {
             throw new RuntimeError(expr.name,
@@ -227,12 +321,11 @@ class Interpreter implements Expr.Visitor<Object>,
         }
 
         int index = ((Double)indexObject).intValue();
-        if (index >= list.size()) {
+        if (index < 0 || index >= array.length()) {
             throw new RuntimeError(expr.name,
                 "Array index out of range.");
         }
-
-        return list.get(index);
+        return index;
     }
 
     private void checkNumberOperand(Token operator, Object operand) {
@@ -240,117 +333,250 @@ class Interpreter implements Expr.Visitor<Object>,
             return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double)
-            return;
-        throw new RuntimeError(operator, "Operands must be numbers.");
-    }
 
-    private Object evaluate(Expr expr) {
+    Object evaluate(Expr expr) {
+        if (Metrics.ENABLED)
+            Metrics.evaluated(expr);
         // dispatch on the type of expr
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
+    // Evaluates an operand of operator that has to be a number.
+    // Arithmetic the Resolver marked numeric is computed right here on
+    // primitive doubles, so nothing in between gets boxed; anything else
+    // is evaluated normally and unboxed.
+    double evaluateNumber(Expr expr, Token operator) {
+        if (Metrics.ENABLED)
+            Metrics.evaluated(expr);
+        if (expr instanceof Expr.Binary binary && binary.numeric)
+            return binary.node.executeNumber(this, binary);
+        if (expr instanceof Expr.Literal literal
+                && literal.value instanceof Double value)
+            return value;
+        if (expr instanceof Expr.Unary unary && unary.numeric)
+            return -evaluateNumber(unary.right, unary.operator);
+        if (expr instanceof Expr.Grouping grouping)
+            return evaluateNumber(grouping.expression, operator);
+        if (expr instanceof Expr.Subscript subscript) {
+            // read straight out of a numeric array's double[]
+            Object object = evaluate(subscript.object);
+            if (object instanceof PulseArray array) {
+                int index = evaluateIndex(subscript, array);
+                if (array.isNumeric())
+                    return array.getNumber(index);
+                if (array.get(index) instanceof Double number)
+                    return number;
+            } else if (subscript(subscript, object) instanceof Double number) {
+                return number;
+            }
+            throw new RuntimeError(operator, "Operands must be numbers.");
+        }
+
+        // already counted
+        Object value = expr.accept(this);
+        if (value instanceof Double number)
+            return number;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    private Completion execute(Stmt stmt) {
+        if (profiler != null)
+            profiler.at(stmt);
+        if (Metrics.ENABLED)
+            Metrics.executed(stmt);
         // dispatch on the type of stmt
-        stmt.accept(this);
+        return stmt.accept(this);
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
+    Completion executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
-            for (Stmt statement : statements)
-                execute(statement);
+            return executeStatements(statements);
         } finally {
             this.environment = previous;
         }
     }
 
+    // runs a function body in its frame, with its closure's captures
+    Completion executeFunction(List<Stmt> body, Environment frame,
+                               Cell[] captures) {
+        Cell[] previous = this.captures;
+        // a function's globals are those of the code that declared it
+        Environment previousGlobals = globals;
+        try {
+            this.captures = captures;
+            globals = frame.enclosing;
+            return executeBlock(body, frame);
+        } finally {
+            this.captures = previous;
+            globals = previousGlobals;
+        }
+    }
+
+    // runs statements until one of them doesn't complete normally
+    private Completion executeStatements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            Completion completion = execute(statement);
+            if (completion != Completion.NORMAL)
+                return completion;
+        }
+        return Completion.NORMAL;
+    }
+
+    // the arguments of a call to a function already checked at this call
+    // site, straight in a new frame for it
+    private Object[] evaluateArguments(Expr.Call expr, PulseFunction function) {
+        Object[] frame = function.newFrame();
+        for (int i = 0; i < expr.arguments.size(); ++i)
+            frame[i] = evaluate(expr.arguments.get(i));
+        return frame;
+    }
+
+    // the value of the return that just completed, handed to the caller
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    // the function of the tail call that just completed; the frame is
+    // taken with takeTailFrame()
+    PulseFunction takeTailFunction() {
+        PulseFunction function = tailFunction;
+        tailFunction = null;
+        return function;
+    }
+    Object[] takeTailFrame() {
+        Object[] frame = tailFrame;
+        tailFrame = null;
+        return frame;
+    }
+
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        // the Resolver gives blocks that declare nothing zero slots
+        if (stmt.slots == 0)
+            return executeStatements(stmt.statements);
+        return executeBlock(stmt.statements,
+            new Environment(environment, stmt.slots));
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        PulseFunction function = new PulseFunction(stmt);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        // a function that captures itself (by calling itself) finds its
+        // Cell already in place
+        Cell cell = null;
+        if (stmt.captured) {
+            cell = new Cell(null);
+            environment.define(stmt.slot, cell);
+        }
+
+        // the closure copies references to just the Cells it uses, not
+        // the environments they're in
+        Cell[] cells = new Cell[stmt.captures.length];
+        for (int i = 0; i < cells.length; ++i) {
+            Resolver.Capture capture = stmt.captures[i];
+            cells[i] = capture.local()
+                ? (Cell)environment.getAt(capture.depth(), capture.index())
+                : captures[capture.index()];
+        }
+
+        PulseFunction function = new PulseFunction(stmt, cells, globals);
+        if (cell != null)
+            cell.value = function;
+        else
+            environment.define(stmt.slot, function);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition)))
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         else if (stmt.elseBranch != null)
-            execute(stmt.elseBranch);
-        return null;
+            return execute(stmt.elseBranch);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
-        return null;
+        output.print(value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            // a call to a Pulse function is left for the invoke() loop of
+            // the function returning; anything else is just called
+            Expr.Call call = (Expr.Call)stmt.value;
+            Object callee = evaluate(call.callee);
+            if (callee instanceof PulseFunction function) {
+                Stmt.Function declaration = function.declaration();
+                boolean checked = declaration == call.cachedDeclaration;
+                if (!checked && function.arity() == call.arguments.size()) {
+                    call.cachedDeclaration = declaration;
+                    checked = true;
+                }
+                if (checked) {
+                    tailFunction = function;
+                    tailFrame = evaluateArguments(call, function);
+                    return Completion.TAIL_CALL;
+                }
+            }
+            returnValue = call(call, callee);
+            return Completion.RETURN;
+        }
+
         Object value = null;
         if (stmt.value != null)
             value = evaluate(stmt.value);
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null)
             value = evaluate(stmt.initializer);
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        environment.define(stmt.slot, stmt.captured ? new Cell(value) : value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
-        while (isTruthy(evaluate(stmt.condition)))
-            execute(stmt.body);
-        return null;
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        while (isTruthy(evaluate(stmt.condition))) {
+            Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL)
+                return completion;
+        }
+        return Completion.NORMAL;
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null)
             return false;
         if (object instanceof Boolean)
             return (boolean)object;
         return true;
     }
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null)
             return true;
         if (a == null)
             return false;
+        // only a PulseString knows it can equal a String
+        if (b instanceof PulseString)
+            return b.equals(a);
         return a.equals(b);
     }
-    private String stringify(Object object) {
-        if (object == null)
-            return "nil";
-
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0"))
-                text = text.substring(0, text.length() - 2);
-            return text;
-        }
-
-        return object.toString();
-    }
 }
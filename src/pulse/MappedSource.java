@@ -0,0 +1,115 @@
+package pulse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A script file, memory-mapped and scanned in place.
+//  - The Scanner sees one char per byte: everything it matches on is
+//    ASCII, and in the charsets allowed here a byte below 0x80 is always
+//    the ASCII character it looks like, never part of a longer one.
+//  - A character outside ASCII is still several chars in a UTF-8 file;
+//    characterEnd() finds its end, so the Scanner can treat it as one.
+//  - subSequence() decodes, so lexemes and string literals come out in
+//    the file's charset; their length can differ from end - start.
+//  - Nothing is copied up front: the Scanner reads through a small
+//    window of the file that slides along with it (bulk copies are much
+//    cheaper than a buffer access per character, especially before the
+//    JIT has warmed up), and only the lexemes it keeps end up on the heap.
+final class MappedSource implements CharSequence {
+    private static final int WINDOW = 64 * 1024;
+
+    private final ByteBuffer bytes;
+    private final Charset charset;
+    // bytes [windowStart, windowStart + windowLength) of the file
+    private final byte[] window;
+    private int windowStart = 0;
+    private int windowLength = 0;
+
+    private MappedSource(ByteBuffer bytes, Charset charset) {
+        this.bytes = bytes;
+        this.charset = charset;
+        this.window = new byte[Math.min(WINDOW, bytes.limit())];
+    }
+
+    // can a file in this charset be scanned a byte at a time?
+    static boolean canMap(Charset charset) {
+        return charset.contains(StandardCharsets.US_ASCII)
+            && (charset.equals(StandardCharsets.UTF_8)
+                || charset.newEncoder().maxBytesPerChar() == 1);
+    }
+
+    static MappedSource map(Path path, Charset charset) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(path + " is too large to run.");
+            // the mapping stays valid after the channel is closed
+            return new MappedSource(
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, size), charset);
+        }
+    }
+
+    // the whole file, for hashing
+    ByteBuffer bytes() {
+        return bytes.duplicate();
+    }
+
+    @Override
+    public int length() {
+        return bytes.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        int offset = index - windowStart;
+        if (offset < 0 || offset >= windowLength) {
+            slideTo(index);
+            offset = 0;
+        }
+        return (char)(window[offset] & 0xff);
+    }
+
+    // index just past the character that starts at index: past a whole
+    // multi-byte sequence in UTF-8, otherwise index + 1
+    int characterEnd(int index) {
+        int lead = charAt(index);
+        if (lead < 0xc0 || !charset.equals(StandardCharsets.UTF_8))
+            return index + 1;
+        // 110xxxxx, 1110xxxx and 11110xxx start 2, 3 and 4 byte sequences
+        int length = lead < 0xe0 ? 2 : lead < 0xf0 ? 3 : 4;
+        int end = index + 1;
+        // a malformed sequence ends at the first byte that isn't 10xxxxxx
+        while (end < index + length && end < length()
+                && (charAt(end) & 0xc0) == 0x80)
+            ++end;
+        return end;
+    }
+
+    // the window starts at index; anything before it is done with
+    private void slideTo(int index) {
+        if (index < 0 || index >= length())
+            throw new IndexOutOfBoundsException(index);
+        windowStart = index;
+        windowLength = Math.min(window.length, length() - index);
+        bytes.get(index, window, 0, windowLength);
+    }
+
+    @Override
+    public String subSequence(int start, int end) {
+        if (start >= windowStart && end <= windowStart + windowLength)
+            return new String(window, start - windowStart, end - start, charset);
+        byte[] text = new byte[end - start];
+        bytes.get(start, text);
+        return new String(text, charset);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length());
+    }
+}
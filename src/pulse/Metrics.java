@@ -0,0 +1,155 @@
+package pulse;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters for what the interpreter does (--metrics, or
+// -Dpulse.metrics=true): evaluations per node type, calls per function,
+// Environments and arrays made, runtime errors.
+//  - ENABLED is read once, when this class is first used, and is a
+//    static final: with metrics off the JIT drops every
+//    `if (Metrics.ENABLED)` guard, so the counting costs nothing.
+//  - Counters are LongAdders, cheap to bump from any thread.
+//  - They're published as the MXBean pulse:type=Metrics (jconsole,
+//    VisualVM, ...) and dumped as JSON at exit.
+public final class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("pulse.metrics");
+
+    // Expr and Stmt subclasses by simple name
+    private static final Map<String, LongAdder> nodes = new ConcurrentHashMap<>();
+    private static final ClassValue<LongAdder> nodeCounters = new ClassValue<>() {
+        @Override
+        protected LongAdder computeValue(Class<?> type) {
+            String name = type.getEnclosingClass().getSimpleName()
+                + "." + type.getSimpleName();
+            return nodes.computeIfAbsent(name, n -> new LongAdder());
+        }
+    };
+    // functions by "name:line" of their declaration
+    private static final Map<String, LongAdder> calls = new ConcurrentHashMap<>();
+    private static final Map<Stmt.Function, LongAdder> callCounters =
+        new ConcurrentHashMap<>();
+    private static final LongAdder environments = new LongAdder();
+    private static final LongAdder arrays = new LongAdder();
+    private static final LongAdder runtimeErrors = new LongAdder();
+
+    private Metrics() {}
+
+    static void evaluated(Expr expr) {
+        nodeCounters.get(expr.getClass()).increment();
+    }
+
+    static void executed(Stmt stmt) {
+        nodeCounters.get(stmt.getClass()).increment();
+    }
+
+    static void called(Stmt.Function function) {
+        callCounters.computeIfAbsent(function, f -> calls.computeIfAbsent(
+            f.name.lexeme + ":" + f.name.line, n -> new LongAdder())).increment();
+    }
+
+    static void environmentCreated() {
+        environments.increment();
+    }
+
+    static void arrayCreated() {
+        arrays.increment();
+    }
+
+    static void runtimeError() {
+        runtimeErrors.increment();
+    }
+
+    // Exporting
+
+    public interface MetricsMXBean {
+        Map<String, Long> getNodeEvaluations();
+        Map<String, Long> getFunctionCalls();
+        long getEnvironments();
+        long getArrays();
+        long getRuntimeErrors();
+    }
+
+    private static final class Bean implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getNodeEvaluations() {
+            return snapshot(nodes);
+        }
+
+        @Override
+        public Map<String, Long> getFunctionCalls() {
+            return snapshot(calls);
+        }
+
+        @Override
+        public long getEnvironments() {
+            return environments.sum();
+        }
+
+        @Override
+        public long getArrays() {
+            return arrays.sum();
+        }
+
+        @Override
+        public long getRuntimeErrors() {
+            return runtimeErrors.sum();
+        }
+    }
+
+    static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new Bean(), new ObjectName("pulse:type=Metrics"));
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't register metrics MBean", e);
+        }
+    }
+
+    // every counter as one JSON object
+    static void dump(PrintStream out) {
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"nodeEvaluations\":");
+        appendCounts(json, snapshot(nodes));
+        json.append(",\"functionCalls\":");
+        appendCounts(json, snapshot(calls));
+        json.append(",\"environments\":").append(environments.sum());
+        json.append(",\"arrays\":").append(arrays.sum());
+        json.append(",\"runtimeErrors\":").append(runtimeErrors.sum());
+        json.append('}');
+        out.println(json);
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counters) {
+        Map<String, Long> counts = new TreeMap<>();
+        counters.forEach((name, counter) -> counts.put(name, counter.sum()));
+        return counts;
+    }
+
+    private static void appendCounts(StringBuilder json, Map<String, Long> counts) {
+        json.append('{');
+        String separator = "";
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            json.append(separator).append('"');
+            appendEscaped(json, entry.getKey());
+            json.append("\":").append(entry.getValue());
+            separator = ",";
+        }
+        json.append('}');
+    }
+
+    private static void appendEscaped(StringBuilder json, String text) {
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\')
+                json.append('\\');
+            json.append(c);
+        }
+    }
+}
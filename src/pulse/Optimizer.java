@@ -0,0 +1,228 @@
+/*
+ * Rewrites the syntax tree between the Parser and the Resolver.
+ *  - Operators whose operands are all literals are evaluated once, here,
+ *    by the same BinaryNode code the Interpreter runs, but without an
+ *    Interpreter (so no natives to set up, and nothing counted by
+ *    --metrics); one that would fail at runtime is left alone so the
+ *    error still happens (on the right line).
+ *  - Groupings only matter to the parser and are dropped.
+ *  - Branches an `if` can never take and `while (false)` loops are removed.
+ */
+
+package pulse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            Stmt stmt = optimize(statement);
+            if (stmt != null)
+                optimized.add(stmt);
+        }
+        return optimized;
+    }
+
+    // null if the statement does nothing
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    // where a statement is required, nothing is an empty block
+    private Stmt optimizeBranch(Stmt stmt) {
+        Stmt optimized = optimize(stmt);
+        return optimized != null ? optimized : new Stmt.Block(new ArrayList<>());
+    }
+
+    private List<Expr> optimizeAll(List<Expr> exprs) {
+        List<Expr> optimized = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs)
+            optimized.add(optimize(expr));
+        return optimized;
+    }
+
+    private static boolean isLiteral(Expr expr) {
+        return expr instanceof Expr.Literal;
+    }
+
+    // evaluates an operator over literals, or returns it unchanged if
+    // that would be a runtime error
+    private static Expr fold(Expr expr) {
+        try {
+            Object value = evaluate(expr);
+            // a literal holds a plain String
+            if (value instanceof PulseString string)
+                value = string.toString();
+            return new Expr.Literal(value);
+        } catch (RuntimeError error) {
+            return expr;
+        }
+    }
+
+    // the value of a Binary or a Unary whose operands are literals
+    private static Object evaluate(Expr expr) {
+        if (expr instanceof Expr.Binary binary)
+            return BinaryNode.GENERIC.apply(binary,
+                ((Expr.Literal)binary.left).value,
+                ((Expr.Literal)binary.right).value);
+
+        Expr.Unary unary = (Expr.Unary)expr;
+        Object right = ((Expr.Literal)unary.right).value;
+        if (unary.operator.type == TokenType.BANG)
+            return !Interpreter.isTruthy(right);
+        if (!(right instanceof Double number))
+            throw new RuntimeError(unary.operator, "Operand must be a number.");
+        return DoubleCache.valueOf(-number);
+    }
+
+    // Statements
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        return new Stmt.Block(optimize(stmt.statements));
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new Stmt.Expression(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return new Stmt.Function(stmt.name, stmt.params, optimize(stmt.body));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal literal) {
+            if (Interpreter.isTruthy(literal.value))
+                return optimize(stmt.thenBranch);
+            return stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        }
+
+        Stmt elseBranch = stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        return new Stmt.If(condition, optimizeBranch(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = stmt.value != null ? optimize(stmt.value) : null;
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = stmt.initializer != null ? optimize(stmt.initializer) : null;
+        return new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal literal
+                && !Interpreter.isTruthy(literal.value))
+            return null;
+        return new Stmt.While(condition, optimizeBranch(stmt.body));
+    }
+
+    // Expressions
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        return new Expr.Assign(expr.name, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr.Binary binary = new Expr.Binary(
+            optimize(expr.left), expr.operator, optimize(expr.right));
+        if (isLiteral(binary.left) && isLiteral(binary.right))
+            return fold(binary);
+        return binary;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        return new Expr.Call(optimize(expr.callee), expr.paren,
+            optimizeAll(expr.arguments));
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (!(left instanceof Expr.Literal literal))
+            return new Expr.Logical(left, expr.operator, right);
+
+        // the left operand decides whether the right one is the result
+        boolean truthy = Interpreter.isTruthy(literal.value);
+        if (expr.operator.type == TokenType.OR)
+            return truthy ? left : right;
+        return truthy ? right : left;
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        // the target has to stay a Subscript
+        Expr.Subscript target = (Expr.Subscript)expr.object;
+        Expr.Subscript subscript = new Expr.Subscript(
+            optimize(target.object), target.name, optimize(target.value));
+        return new Expr.Set(subscript, expr.name, optimize(expr.right));
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr.Unary unary = new Expr.Unary(expr.operator, optimize(expr.right));
+        if (isLiteral(unary.right))
+            return fold(unary);
+        return unary;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitArrayExpr(Expr.Array expr) {
+        // array literals make a new (mutable) array every time; not folded
+        if (expr.values == null)
+            return expr;
+        return new Expr.Array(optimizeAll(expr.values));
+    }
+
+    @Override
+    public Expr visitSubscriptExpr(Expr.Subscript expr) {
+        return new Expr.Subscript(optimize(expr.object), expr.name,
+            optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitMapExpr(Expr.Map expr) {
+        // like arrays, a new map every time
+        return new Expr.Map(expr.brace, optimizeAll(expr.keys),
+            optimizeAll(expr.values));
+    }
+}
@@ -0,0 +1,126 @@
+package pulse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+// Where `print` writes, for both backends.
+//  - Values are written as characters straight into one big buffer:
+//    strings (PulseStrings too) are copied in and whole numbers are
+//    written digit by digit, so printing makes no Strings of its own.
+//  - The buffer is encoded and written out when it fills and on flush().
+//    Interactive output is also flushed after every print; batch output
+//    only then, so a script printing many lines makes few system calls.
+//  - Whoever owns it flushes it before reporting an error and at exit.
+public final class Output {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+
+    private final Writer writer;
+    private final boolean interactive;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int count = 0;
+
+    public Output(OutputStream out, Charset charset, boolean interactive) {
+        this.writer = new OutputStreamWriter(out, charset);
+        this.interactive = interactive;
+    }
+
+    // stdout, flushed after every print
+    public static Output standard() {
+        return new Output(System.out, Charset.defaultCharset(), true);
+    }
+
+    // the value the way Pulse shows it, and a newline
+    public synchronized void print(Object value) {
+        if (value == null)
+            append("nil");
+        else if (value instanceof Double number)
+            appendNumber(number);
+        else if (value instanceof CharSequence text)
+            append(text);
+        else
+            append(value.toString());
+        if (count == buffer.length)
+            drain();
+        buffer[count++] = '\n';
+
+        if (interactive)
+            flush();
+    }
+
+    public synchronized void flush() {
+        drain();
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // hands the buffer to the writer
+    private void drain() {
+        try {
+            writer.write(buffer, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+
+    private void append(CharSequence text) {
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            if (count == buffer.length)
+                drain();
+            int end = Math.min(length, start + buffer.length - count);
+            if (text instanceof String string)
+                string.getChars(start, end, buffer, count);
+            else if (text instanceof PulseString string)
+                string.getChars(start, end, buffer, count);
+            else
+                for (int i = start; i < end; ++i)
+                    buffer[count + i - start] = text.charAt(i);
+            count += end - start;
+            start = end;
+        }
+    }
+
+    // A number prints like Double.toString() without a trailing ".0".
+    // Whole numbers that would print that way (below 10^7, past which
+    // Double.toString() uses an exponent) are written without it.
+    private void appendNumber(double number) {
+        if (number == (long)number && Math.abs(number) < 1e7
+                && Double.doubleToRawLongBits(number) != NEGATIVE_ZERO) {
+            appendLong((long)number);
+            return;
+        }
+
+        String text = Double.toString(number);
+        if (text.endsWith(".0"))
+            text = text.substring(0, text.length() - 2);
+        append(text);
+    }
+
+    private void appendLong(long value) {
+        // a long is at most 20 characters with its sign
+        if (buffer.length - count < 20)
+            drain();
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10)
+            ++digits;
+        for (int i = count + digits - 1; i >= count; --i) {
+            buffer[i] = (char)('0' + value % 10);
+            value /= 10;
+        }
+        count += digits;
+    }
+}
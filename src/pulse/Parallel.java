@@ -0,0 +1,162 @@
+package pulse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+// Natives that run a function over an array on every core:
+//   pmap(array, fn)           a new array of fn(element)
+//   pfilter(array, fn)        a new array of the elements fn is truthy
+//                             for, in their order
+//   preduce(array, fn, init)  fn(...fn(fn(init, a0), a1)..., an)
+//  - A big array is cut into chunks, about four per worker of the common
+//    ForkJoinPool, and never smaller than MIN_CHUNK elements; an array
+//    of one chunk is done on the calling thread.
+//  - Each chunk runs in an Interpreter of its own over the caller's
+//    globals, like a spawned task. Chunks write their results into
+//    separate parts of one Object[], and the caller builds the new
+//    PulseArray from it once every chunk is done.
+//  - preduce reduces every chunk from init, then combines the chunks'
+//    results with fn, so fn must be associative and init its identity
+//    (0 for +, 1 for *) for the result not to depend on the split.
+final class Parallel {
+    private static final int MIN_CHUNK = 256;
+
+    private Parallel() {}
+
+    static void defineNatives(Environment globals) {
+        globals.define("pmap", new PulseNative(2, (interpreter, arguments) -> {
+            PulseArray array = array("pmap", arguments[0]);
+            Object[] results = apply(interpreter, array,
+                function("pmap", arguments[1], 1));
+            PulseArray mapped = new PulseArray(results.length);
+            for (int i = 0; i < results.length; ++i)
+                mapped.set(i, results[i]);
+            return mapped;
+        }));
+        globals.define("pfilter", new PulseNative(2, (interpreter, arguments) -> {
+            PulseArray array = array("pfilter", arguments[0]);
+            Object[] results = apply(interpreter, array,
+                function("pfilter", arguments[1], 1));
+            int count = 0;
+            for (Object result : results) {
+                if (Interpreter.isTruthy(result))
+                    ++count;
+            }
+            PulseArray filtered = new PulseArray(count);
+            int next = 0;
+            for (int i = 0; i < results.length; ++i) {
+                if (Interpreter.isTruthy(results[i]))
+                    filtered.set(next++, array, i);
+            }
+            return filtered;
+        }));
+        globals.define("preduce", new PulseNative(3, (interpreter, arguments) -> {
+            PulseArray array = array("preduce", arguments[0]);
+            PulseCallable function = function("preduce", arguments[1], 2);
+            Object init = arguments[2];
+
+            int length = array.length();
+            int chunk = chunkSize(length);
+            if (length <= chunk)
+                return reduce(interpreter, array, function, init, 0, length);
+
+            List<RecursiveTask<Object>> tasks = new ArrayList<>();
+            for (int from = 0; from < length; from += chunk) {
+                int start = from;
+                int end = Math.min(length, from + chunk);
+                tasks.add(task(() -> reduce(new Interpreter(interpreter),
+                    array, function, init, start, end)));
+            }
+            ForkJoinTask.invokeAll(tasks);
+
+            Object result = tasks.get(0).join();
+            for (int i = 1; i < tasks.size(); ++i)
+                result = function.call(interpreter,
+                    new Object[] { result, tasks.get(i).join() });
+            return result;
+        }));
+    }
+
+    // fn(element) for every element, the chunks in parallel
+    private static Object[] apply(Interpreter interpreter, PulseArray array,
+                                  PulseCallable function) {
+        int length = array.length();
+        Object[] results = new Object[length];
+        int chunk = chunkSize(length);
+        if (length <= chunk) {
+            apply(interpreter, array, function, results, 0, length);
+            return results;
+        }
+
+        List<RecursiveTask<Object>> tasks = new ArrayList<>();
+        for (int from = 0; from < length; from += chunk) {
+            int start = from;
+            int end = Math.min(length, from + chunk);
+            tasks.add(task(() -> {
+                apply(new Interpreter(interpreter), array, function,
+                    results, start, end);
+                return null;
+            }));
+        }
+        // rethrows the first runtime error a chunk stopped with
+        ForkJoinTask.invokeAll(tasks);
+        return results;
+    }
+
+    private static void apply(Interpreter interpreter, PulseArray array,
+                              PulseCallable function, Object[] results,
+                              int from, int to) {
+        Object[] argument = new Object[1];
+        for (int i = from; i < to; ++i) {
+            argument[0] = array.get(i);
+            results[i] = function.call(interpreter, argument);
+        }
+    }
+
+    private static Object reduce(Interpreter interpreter, PulseArray array,
+                                 PulseCallable function, Object init,
+                                 int from, int to) {
+        Object result = init;
+        Object[] arguments = new Object[2];
+        for (int i = from; i < to; ++i) {
+            arguments[0] = result;
+            arguments[1] = array.get(i);
+            result = function.call(interpreter, arguments);
+        }
+        return result;
+    }
+
+    private static int chunkSize(int length) {
+        int chunks = ForkJoinPool.getCommonPoolParallelism() * 4;
+        return Math.max(MIN_CHUNK, (length + chunks - 1) / chunks);
+    }
+
+    private interface Work {
+        Object run();
+    }
+
+    private static RecursiveTask<Object> task(Work work) {
+        return new RecursiveTask<>() {
+            @Override
+            protected Object compute() {
+                return work.run();
+            }
+        };
+    }
+
+    private static PulseArray array(String name, Object value) {
+        if (value instanceof PulseArray array)
+            return array;
+        throw new RuntimeError(name + "() takes an array.");
+    }
+
+    private static PulseCallable function(String name, Object value, int arity) {
+        if (value instanceof PulseCallable function && function.arity() == arity)
+            return function;
+        throw new RuntimeError(name + "() takes a function with " + arity
+            + (arity == 1 ? " parameter." : " parameters."));
+    }
+}
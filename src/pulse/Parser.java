@@ -10,21 +10,37 @@ public class Parser {
 
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
+    // packed tokens; a Token is only built for the ones the tree keeps
+    private final TokenStream tokens;
     private int current = 0;
 
-    Parser(List<Token> tokens) {
+    Parser(TokenStream tokens) {
         this.tokens = tokens;
     }
 
     // program -> declaration* EOF ;
     List<Stmt> parse() {
         List<Stmt> statements = new ArrayList<>();
-        while (!isAtEnd())
-            statements.add(declaration());
+        while (hasNext())
+            statements.add(next());
         return statements;
     }
 
+    // Pulling one top-level declaration at a time, so each can run (and
+    // be let go of) before the rest of the program is parsed
+
+    boolean hasNext() {
+        return !isAtEnd();
+    }
+
+    // the next top-level declaration, or null if it had a syntax error
+    Stmt next() {
+        Stmt statement = declaration();
+        // nothing looks back past the statement just parsed
+        tokens.discardBefore(current - 1);
+        return statement;
+    }
+
     // declaration -> funDecl | varDecl | statement ;
     private Stmt declaration() {
         try {
@@ -41,7 +57,8 @@ public class Parser {
 
     // varDecl -> "var" IDENTIFIER ( "=" expression )? ";" ;
     private Stmt varDeclaration() {
-        Token name = consume(IDENTIFIER, "Expect variable name.");
+        consume(IDENTIFIER, "Expect variable name.");
+        Token name = previous();
 
         Expr initializer = null;
         if (match(EQUAL))
@@ -156,7 +173,8 @@ public class Parser {
     // function -> IDENTIFIER "(" parameters? ")" block ;
     // parameters -> IDENTIFIER ( "," IDENTIFIER )* ;
     private Stmt.Function function(String kind) {
-        Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
+        consume(IDENTIFIER, "Expect " + kind + " name.");
+        Token name = previous();
 
         consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
 
@@ -165,8 +183,8 @@ public class Parser {
             do {
                 if (parameters.size() >= 255)
                     error(peek(), "Can't have more than 255 parameters.");
-                parameters.add(
-                    consume(IDENTIFIER, "Expect parameter name."));
+                consume(IDENTIFIER, "Expect parameter name.");
+                parameters.add(previous());
             } while (match(COMMA));
         }
 
@@ -198,7 +216,7 @@ public class Parser {
         Expr expr = or();
 
         if (match(EQUAL)) {
-            Token equals = previous();
+            int equals = current - 1; // only made a Token on error
             Expr value = assignment();
 
             if (expr instanceof Expr.Variable) {
@@ -211,7 +229,7 @@ public class Parser {
                 return new Expr.Set(set, set.name, value);
             }
 
-            error(equals, "Invalid assignment target.");
+            error(tokens.token(equals), "Invalid assignment target.");
         }
 
         return expr;
@@ -306,7 +324,8 @@ public class Parser {
                 arguments.add(expression());
             } while (match(COMMA));
         }
-        Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        Token paren = previous();
         return new Expr.Call(callee, paren, arguments);
     }
     // call -> primary ( "(" arguments? ")" )* ;
@@ -317,8 +336,8 @@ public class Parser {
                 callee = finishCall(callee);
             } else if (match(LEFT_SQUARE)) {
                 Expr index = expression();
-                Token closeBracket = consume(RIGHT_SQUARE,
-                    "Expected ']' after subscript index.");
+                consume(RIGHT_SQUARE, "Expected ']' after subscript index.");
+                Token closeBracket = previous();
                 callee = new Expr.Subscript(callee, closeBracket, index);
             } else {
                 break;
@@ -337,7 +356,7 @@ public class Parser {
             return new Expr.Literal(null);
 
         if (match(NUMBER, STRING))
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(tokens.literal(current - 1));
 
         if (match(IDENTIFIER))
             return new Expr.Variable(previous());
@@ -355,13 +374,29 @@ public class Parser {
             while (!match(RIGHT_SQUARE)) {
                 Expr value = expression();
                 values.add(value);
-                if (peek().type != RIGHT_SQUARE)
+                if (peekType() != RIGHT_SQUARE)
                     consume(COMMA,
                         "Expected a comma before next expression.");
             }
             return new Expr.Array(values);
         }
 
+        // a `{` starting a statement is a block, so a map literal is
+        // only ever seen here, inside an expression
+        if (match(LEFT_BRACE)) {
+            Token brace = previous();
+            List<Expr> keys = new ArrayList<>();
+            List<Expr> values = new ArrayList<>();
+            while (!match(RIGHT_BRACE)) {
+                keys.add(expression());
+                consume(COLON, "Expect ':' after map key.");
+                values.add(expression());
+                if (peekType() != RIGHT_BRACE)
+                    consume(COMMA, "Expect ',' between map entries.");
+            }
+            return new Expr.Map(brace, keys, values);
+        }
+
         throw error(peek(), "Expect expression.");
     }
 
@@ -376,34 +411,39 @@ public class Parser {
         return false;
     }
     // check that the next token is the expected type, then consume it
-    private Token consume(TokenType type, String message) {
-        if (check(type))
-            return advance();
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
         throw error(peek(), message);
     }
     // return if the current token is of the given type. doesn't consume
     private boolean check(TokenType type) {
         if (isAtEnd())
             return false;
-        return peek().type == type;
+        return peekType() == type;
     }
-    // consume the current token and return it
-    private Token advance() {
+    // consume the current token
+    private void advance() {
         if (!isAtEnd())
             ++current;
-        return previous();
     }
     // check if we've run  out of tokens to parse
     private boolean isAtEnd() {
-        return peek().type == EOF;
+        return peekType() == EOF;
+    }
+    // type of the current token not yet consumed
+    private TokenType peekType() {
+        return tokens.type(current);
     }
-    // return the current token not yet consumed
+    // the current token not yet consumed, for error messages
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
-    // return the most recently consumed token, for match()
+    // the most recently consumed token, for match()
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     // unexpected token, print message, throw ParseError
@@ -416,10 +456,10 @@ public class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == SEMICOLON)
+            if (tokens.type(current - 1) == SEMICOLON)
                 return;
 
-            switch (peek().type) {
+            switch (peekType()) {
                 case CLASS, FUN, VAR, FOR, IF, WHILE, PRINT, RETURN
                     -> { return; }
             }
@@ -0,0 +1,228 @@
+package pulse;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Sampling profiler for Pulse code (--profile).
+//  - The interpreter keeps a shadow of the Pulse call stack here: the
+//    function of every frame and the statement it's running. That's two
+//    array stores per call and one per statement, and none at all when
+//    there's no Profiler.
+//  - A daemon thread looks at that stack every millisecond and counts
+//    what it sees. It doesn't stop the interpreter; a sample taken while
+//    a frame is being pushed can be a little off, which sampling
+//    tolerates anyway.
+//  - Statement lines are only worked out by the sampler, off the
+//    interpreter's path.
+final class Profiler {
+    private static final long INTERVAL_MILLIS = 1;
+    private static final String SCRIPT = "<script>";
+
+    // the profiled stack: frames [0, depth), the top-level code in frame 0
+    private Stmt.Function[] functions = new Stmt.Function[64];
+    private Stmt[] statements = new Stmt[64];
+    private int depth = 1;
+
+    // what the sampler has seen: collapsed stack -> samples, function ->
+    // samples on top / anywhere on the stack, "function:line" -> samples
+    // on top
+    private final Map<String, Integer> stacks = new HashMap<>();
+    private final Map<String, Integer> self = new HashMap<>();
+    private final Map<String, Integer> total = new HashMap<>();
+    private final Map<String, Integer> lines = new HashMap<>();
+    private int samples = 0;
+
+    private final Thread sampler = new Thread(this::sample, "pulse-profiler");
+    private volatile boolean running = true;
+
+    void start() {
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    // Interpreter side
+
+    void enter(Stmt.Function function) {
+        if (depth == functions.length) {
+            // the sampler may still read the old arrays; that's fine
+            statements = Arrays.copyOf(statements, depth * 2);
+            functions = Arrays.copyOf(functions, depth * 2);
+        }
+        functions[depth] = function;
+        statements[depth] = null;
+        ++depth;
+    }
+
+    // a tail call: the top frame now runs another function
+    void replace(Stmt.Function function) {
+        functions[depth - 1] = function;
+        statements[depth - 1] = null;
+    }
+
+    void exit() {
+        --depth;
+    }
+
+    void at(Stmt statement) {
+        statements[depth - 1] = statement;
+    }
+
+    // Sampler side
+
+    private void sample() {
+        while (running) {
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            record();
+        }
+    }
+
+    private synchronized void record() {
+        Stmt.Function[] functions = this.functions;
+        Stmt[] statements = this.statements;
+        int depth = Math.min(this.depth, Math.min(functions.length, statements.length));
+        // nothing runs until the script is parsed and resolved
+        if (depth <= 0 || statements[0] == null)
+            return;
+
+        StringBuilder stack = new StringBuilder();
+        Set<String> seen = new HashSet<>();
+        String name = SCRIPT;
+        for (int i = 0; i < depth; ++i) {
+            name = nameOf(i == 0 ? null : functions[i]);
+            if (i > 0)
+                stack.append(';');
+            stack.append(name);
+            // recursion counts once toward a function's total
+            if (seen.add(name))
+                total.merge(name, 1, Integer::sum);
+        }
+        stacks.merge(stack.toString(), 1, Integer::sum);
+        self.merge(name, 1, Integer::sum);
+        // a function just entered is still on its own line
+        Stmt statement = statements[depth - 1];
+        int line = statement != null || depth == 1
+            ? lineOf(statement)
+            : functions[depth - 1].name.line;
+        lines.merge(name + ":" + line, 1, Integer::sum);
+        ++samples;
+    }
+
+    // stops sampling; what was seen so far can still be reported
+    void stop() {
+        running = false;
+        sampler.interrupt();
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Reports
+
+    // functions by time on top of the stack (self) and anywhere on it
+    // (total), then the lines the time on top was spent on
+    synchronized void printFlat(PrintStream out) {
+        out.println("Pulse profile: " + samples + " samples, "
+            + INTERVAL_MILLIS + " ms apart");
+        out.println("   self%  total%  function");
+        for (Map.Entry<String, Integer> entry : byCount(total)) {
+            String function = entry.getKey();
+            out.printf("  %5.1f%%  %5.1f%%  %s%n",
+                percent(self.getOrDefault(function, 0)),
+                percent(entry.getValue()), function);
+        }
+        out.println("   self%  function:line");
+        for (Map.Entry<String, Integer> entry : byCount(lines)) {
+            out.printf("  %5.1f%%  %s%n",
+                percent(entry.getValue()), entry.getKey());
+        }
+    }
+
+    // one "a;b;c count" line per distinct stack, the input flamegraph.pl
+    // and speedscope take
+    synchronized void writeCollapsed(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            for (Map.Entry<String, Integer> entry : byCount(stacks))
+                writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+        }
+    }
+
+    private double percent(int count) {
+        return samples == 0 ? 0 : 100.0 * count / samples;
+    }
+
+    private static List<Map.Entry<String, Integer>> byCount(Map<String, Integer> counts) {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        return entries;
+    }
+
+    private static String nameOf(Stmt.Function function) {
+        return function == null ? SCRIPT : function.name.lexeme;
+    }
+
+    // Lines: the first token a statement (or expression) has; 0 if none
+
+    private static int lineOf(Stmt statement) {
+        if (statement instanceof Stmt.Var var)
+            return var.name.line;
+        if (statement instanceof Stmt.Return ret)
+            return ret.keyword.line;
+        if (statement instanceof Stmt.Function function)
+            return function.name.line;
+        if (statement instanceof Stmt.Expression expression)
+            return lineOf(expression.expression);
+        if (statement instanceof Stmt.Print print)
+            return lineOf(print.expression);
+        if (statement instanceof Stmt.If conditional)
+            return lineOf(conditional.condition);
+        if (statement instanceof Stmt.While loop)
+            return lineOf(loop.condition);
+        if (statement instanceof Stmt.Block block && !block.statements.isEmpty())
+            return lineOf(block.statements.get(0));
+        return 0;
+    }
+
+    private static int lineOf(Expr expression) {
+        if (expression instanceof Expr.Assign assign)
+            return assign.name.line;
+        if (expression instanceof Expr.Binary binary)
+            return binary.operator.line;
+        if (expression instanceof Expr.Call call)
+            return call.paren.line;
+        if (expression instanceof Expr.Grouping grouping)
+            return lineOf(grouping.expression);
+        if (expression instanceof Expr.Logical logical)
+            return logical.operator.line;
+        if (expression instanceof Expr.Set set)
+            return set.name.line;
+        if (expression instanceof Expr.Unary unary)
+            return unary.operator.line;
+        if (expression instanceof Expr.Variable variable)
+            return variable.name.line;
+        if (expression instanceof Expr.Subscript subscript)
+            return subscript.name.line;
+        if (expression instanceof Expr.Map map)
+            return map.brace.line;
+        // the Parser leaves `[]` with no values list at all
+        if (expression instanceof Expr.Array array && array.values != null
+                && !array.values.isEmpty())
+            return lineOf(array.values.get(0));
+        return 0;
+    }
+}
@@ -1,45 +1,210 @@
 package pulse;
 
+import pulse.vm.CompiledFunction;
+import pulse.vm.VM;
+import pulse.vm.VMRuntimeError;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.nio.charset.Charset;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 public class Pulse {
 
     // static so successive calls in run() use the same interpreter
     private static final Interpreter interpreter = new Interpreter();
+    // bytecode backend, used instead of the interpreter with --vm
+    private static VM vm = null;
+    // parsed scripts from earlier runs; null with --no-cache
+    private static AstCache cache = AstCache.standard();
+    // run each top-level statement of a file as soon as it's parsed
+    private static boolean streaming = false;
+    // how deep Pulse calls may nest before a "Stack overflow." error
+    private static int maxDepth = 10_000;
+    // Java stack to give the interpreter per Pulse call; frames are
+    // biggest before the JIT has compiled them
+    private static final long STACK_PER_CALL = 4 * 1024;
+    // where `print` writes; flushed before any error is reported
+    private static Output output = Output.standard();
+    // samples the interpreter's Pulse call stack with --profile
+    private static Profiler profiler = null;
 
     static boolean hadError = false; // used in runFile and the REPL
     static boolean hadRuntimeError = false; // only used in runFile
+    // compile errors of the PulseEngine compiling on this thread, which
+    // are collected instead of printed
+    private static final ThreadLocal<List<String>> engineErrors = new ThreadLocal<>();
+
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+        String script = null;
+        String flush = null;
+        for (String arg : args) {
+            if (arg.equals("--vm")) {
+                vm = new VM();
+            } else if (arg.equals("--no-cache")) {
+                cache = null;
+            } else if (arg.equals("--stream")) {
+                streaming = true;
+            } else if (arg.startsWith("--max-depth=")) {
+                maxDepth = parseDepth(arg.substring("--max-depth=".length()));
+            } else if (arg.equals("--flush=line") || arg.equals("--flush=batch")) {
+                flush = arg.substring("--flush=".length());
+            } else if (arg.equals("--profile")) {
+                profiler = new Profiler();
+            } else if (arg.equals("--metrics")) {
+                // read by Metrics when it's first used, which is later
+                System.setProperty("pulse.metrics", "true");
+            } else if (script == null && !arg.startsWith("--")) {
+                script = arg;
+            } else {
+                usage();
+            }
+        }
+
+        // Output goes out a line at a time to a person (the REPL, or a
+        // terminal), and in big blocks to a file or pipe.
+        boolean interactive = flush != null
+            ? flush.equals("line")
+            : script == null || System.console() != null;
+        output = new Output(System.out, Charset.defaultCharset(), interactive);
+        interpreter.setOutput(output);
+
+        if (Metrics.ENABLED) {
+            Metrics.register();
+            Runtime.getRuntime().addShutdownHook(
+                new Thread(() -> Metrics.dump(System.err)));
+        }
+
+        // only the interpreter keeps a stack the profiler can follow
+        if (profiler != null && (vm != null || script == null))
+            usage();
 
-    public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jpls [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        String path = script;
+        FutureTask<Void> program = new FutureTask<>(() -> {
+            if (path != null)
+                runFile(path);
+            else
+                runPrompt();
+            return null;
+        });
+
+        if (vm != null) {
+            // the VM keeps its frames on the heap
+            vm.setMaxFrames(maxDepth);
+            vm.setOutput(output);
+            program.run();
         } else {
-            runPrompt();
+            // The interpreter recurses on the Java stack, so it runs on a
+            // thread whose stack has room for maxDepth calls, whatever -Xss
+            // says, up to as much as the heap may take. The stack is only
+            // reserved; pages are touched as the calls get that deep.
+            interpreter.setMaxDepth(maxDepth);
+            long stackSize = Math.min(maxDepth * STACK_PER_CALL,
+                Runtime.getRuntime().maxMemory());
+            Thread thread = new Thread(null, program, "pulse", stackSize);
+            thread.start();
+            thread.join();
+        }
+
+        try {
+            program.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException error)
+                throw error;
+            if (e.getCause() instanceof RuntimeException error)
+                throw error;
+            throw (Error)e.getCause();
         }
     }
 
+    private static int parseDepth(String depth) {
+        try {
+            int value = Integer.parseInt(depth);
+            if (value > 0)
+                return value;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        usage();
+        return 0;
+    }
+
+    private static void usage() {
+        System.out.println(
+            "Usage: jpls [--vm] [--no-cache] [--stream] [--max-depth=N]"
+                + " [--flush=line|batch] [--profile script] [--metrics] [script]");
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Path.of(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        Path file = Path.of(path);
+        if (profiler != null) {
+            interpreter.profiler = profiler;
+            profiler.start();
+        }
+        Charset charset = Charset.defaultCharset();
+        // scan the file in place if its charset allows, rather than
+        // decoding a copy of all of it first
+        CharSequence source;
+        ByteBuffer bytes;
+        if (MappedSource.canMap(charset)) {
+            MappedSource mapped = MappedSource.map(file, charset);
+            source = mapped;
+            bytes = mapped.bytes();
+        } else {
+            byte[] contents = Files.readAllBytes(file);
+            source = new String(contents, charset);
+            bytes = ByteBuffer.wrap(contents);
+        }
+
+        if (streaming) {
+            runStreaming(source);
+        } else if (cache == null) {
+            run(source);
+        } else {
+            // a script that ran before skips straight to resolving
+            String key = AstCache.key(bytes, charset);
+            List<Stmt> statements = cache.load(key);
+            if (statements == null) {
+                statements = parse(source);
+                if (!hadError)
+                    cache.store(key, statements);
+            }
+            if (!hadError)
+                execute(statements);
+        }
+        output.flush();
+        if (profiler != null)
+            reportProfile(file);
         if (hadError)
             System.exit(65);
         if (hadRuntimeError)
             System.exit(70);
     }
+    // the flat profile on stderr, the stacks next to it in
+    // <script>.collapsed (in the working directory) for a flame graph
+    private static void reportProfile(Path script) throws IOException {
+        profiler.stop();
+        profiler.printFlat(System.err);
+        Path collapsed = Path.of(script.getFileName() + ".collapsed");
+        profiler.writeCollapsed(collapsed);
+        System.err.println("Stacks written to " + collapsed);
+    }
+
     private static void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
 
         while (true) {
+            // everything the last line printed comes before the prompt
+            output.flush();
             System.out.print("> ");
             String line = reader.readLine();
             if (line == null || line.equals("exit"))
@@ -47,16 +212,57 @@ public class Pulse {
             run(line);
             hadError = false;
         }
+        output.flush();
+    }
+    private static void run(CharSequence source) {
+        List<Stmt> statements = parse(source);
+
+        // stop if there was a syntax error
+        if (hadError)
+            return;
+
+        execute(statements);
+    }
+
+    // Each statement is optimized, resolved and executed as soon as it's
+    // parsed, and is garbage once it has run (unless it declared a
+    // function). A syntax error only stops the statements after it; the
+    // parser carries on to report any others.
+    private static void runStreaming(CharSequence source) {
+        Parser parser = new Parser(new Scanner(source).stream());
+        Optimizer optimizer = new Optimizer();
+        while (!hadRuntimeError && parser.hasNext()) {
+            Stmt statement = parser.next();
+            if (!hadError)
+                execute(optimizer.optimize(List.of(statement)));
+        }
     }
-    private static void run(String source) {
-        // scanning, parsing, and execution
+
+    // scanning, parsing and optimizing
+    private static List<Stmt> parse(CharSequence source) {
+        // the Parser pulls tokens from the Scanner as it needs them
         Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        TokenStream tokens = scanner.stream();
 
         Parser parser = new Parser(tokens);
         List<Stmt> statements = parser.parse();
 
-        // stop if there was a syntax error
+        if (hadError)
+            return statements;
+        return new Optimizer().optimize(statements);
+    }
+
+    // resolving and execution
+    private static void execute(List<Stmt> statements) {
+        if (vm != null) {
+            runBytecode(statements);
+            return;
+        }
+
+        Resolver resolver = new Resolver(interpreter);
+        resolver.resolve(statements);
+
+        // stop if there was a resolution error
         if (hadError)
             return;
 
@@ -66,11 +272,40 @@ public class Pulse {
         // "It's alive!"
     }
 
+    private static void runBytecode(List<Stmt> statements) {
+        BytecodeCompiler compiler = new BytecodeCompiler(vm);
+        CompiledFunction script = compiler.compile(statements);
+
+        // stop if there was a compile error
+        if (hadError)
+            return;
+
+        try {
+            vm.interpret(script);
+        } catch (VMRuntimeError error) {
+            runtimeError(error.line, error.getMessage());
+        }
+    }
+
+    // errors reported on this thread go to errors until the matching
+    // stopCollectingErrors()
+    static void collectErrors(List<String> errors) {
+        engineErrors.set(errors);
+    }
+    static void stopCollectingErrors() {
+        engineErrors.remove();
+    }
+
     private static void report(int line, String where, String message) {
-        // System.out.flush();
+        List<String> errors = engineErrors.get();
+        if (errors != null) {
+            errors.add("[Line " + line + "] Error" + where + ": " + message);
+            return;
+        }
+        // what the program printed so far comes before the error
+        output.flush();
         System.err.println(
             "[Line " + line + "] Error" + where + ": " + message);
-        // System.err.flush();
         hadError = true;
     }
     static void error(int line, String message) {
@@ -85,8 +320,13 @@ public class Pulse {
     }
 
     static void runtimeError(RuntimeError error) {
-        System.err.println("[line " + error.token.line + "] Runtime Error: "
-            + error.getMessage());
+        runtimeError(error.token.line, error.getMessage());
+    }
+    static void runtimeError(int line, String message) {
+        if (Metrics.ENABLED)
+            Metrics.runtimeError();
+        output.flush();
+        System.err.println("[line " + line + "] Runtime Error: " + message);
         hadRuntimeError = true;
     }
 }
\ No newline at end of file
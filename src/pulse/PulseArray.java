@@ -0,0 +1,119 @@
+package pulse;
+
+import java.util.Arrays;
+
+// Array value.
+//  - While every element is a number they're stored unboxed in a double[],
+//    so numeric reads and writes don't allocate.
+//  - The first non-number stored switches the array over to an Object[]
+//    for good.
+final class PulseArray {
+    private double[] numbers; // null once the array holds anything else
+    private Object[] values;  // null while the array is all numbers
+
+    // an all-zero numeric array
+    PulseArray(int length) {
+        this.numbers = new double[length];
+        this.values = null;
+        if (Metrics.ENABLED)
+            Metrics.arrayCreated();
+    }
+
+    int length() {
+        return numbers != null ? numbers.length : values.length;
+    }
+
+    boolean isNumeric() {
+        return numbers != null;
+    }
+
+    // only valid while isNumeric()
+    double getNumber(int index) {
+        return numbers[index];
+    }
+
+    Object get(int index) {
+        if (numbers != null)
+            return DoubleCache.valueOf(numbers[index]);
+        return values[index];
+    }
+
+    void set(int index, Object value) {
+        if (numbers != null) {
+            if (value instanceof Double number) {
+                numbers[index] = number;
+                return;
+            }
+            box();
+        }
+        values[index] = value;
+    }
+
+    void setNumber(int index, double value) {
+        if (numbers != null)
+            numbers[index] = value;
+        else
+            values[index] = DoubleCache.valueOf(value);
+    }
+
+    // this[index] = source[sourceIndex], without boxing between two
+    // numeric arrays (the swap in every sort)
+    void set(int index, PulseArray source, int sourceIndex) {
+        if (source.numbers != null)
+            setNumber(index, source.numbers[sourceIndex]);
+        else
+            set(index, source.values[sourceIndex]);
+    }
+
+    // switch to the Object[] representation
+    private void box() {
+        values = new Object[numbers.length];
+        for (int i = 0; i < numbers.length; ++i)
+            values[i] = DoubleCache.valueOf(numbers[i]);
+        numbers = null;
+    }
+
+    // arrays compare by value, element by element
+    @Override
+    public boolean equals(Object object) {
+        if (this == object)
+            return true;
+        if (!(object instanceof PulseArray other))
+            return false;
+        if (numbers != null && other.numbers != null)
+            return Arrays.equals(numbers, other.numbers);
+        if (length() != other.length())
+            return false;
+        for (int i = 0; i < length(); ++i) {
+            Object a = get(i);
+            Object b = other.get(i);
+            if (a == null ? b != null : !a.equals(b))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < length(); ++i) {
+            Object element = get(i);
+            hash = 31 * hash + (element == null ? 0 : element.hashCode());
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < length(); ++i) {
+            if (i > 0)
+                builder.append(", ");
+            if (numbers != null)
+                builder.append(numbers[i]);
+            else
+                builder.append(values[i]);
+        }
+        return builder.append("]").toString();
+    }
+}
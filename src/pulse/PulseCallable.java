@@ -1,9 +1,7 @@
 package pulse;
 
-import java.util.List;
-
 interface PulseCallable {
     int arity();
-    Object call(Interpreter interpreter, List<Object> arguments);
+    Object call(Interpreter interpreter, Object[] arguments);
 }
 
@@ -0,0 +1,34 @@
+package pulse;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Channel value: a bounded FIFO that tasks hand values through.
+//  - send() waits while the channel is full, receive() while it's empty;
+//    a waiting virtual thread doesn't hold on to a carrier thread.
+//  - Whatever a task did before a send is visible to the task that
+//    receives the value.
+final class PulseChannel {
+    // stands in for nil, which a BlockingQueue can't hold
+    private static final Object NIL = new Object();
+
+    private final BlockingQueue<Object> queue;
+
+    PulseChannel(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    void send(Object value) throws InterruptedException {
+        queue.put(value == null ? NIL : value);
+    }
+
+    Object receive() throws InterruptedException {
+        Object value = queue.take();
+        return value == NIL ? null : value;
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
@@ -0,0 +1,97 @@
+package pulse;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// Pulse for Java programs, from any number of threads.
+//  - compile() scans, parses, optimizes and resolves a script once into
+//    a Program, which every thread can share. (Its tree keeps caches that
+//    running threads refill, but every value they can hold is right for
+//    every Context, so sharing it is safe.)
+//  - A Context runs Programs with globals, output and error state of its
+//    own. Contexts are cheap; give each thread (or each request) one. A
+//    Context must only be used by one thread at a time.
+//  - A Program numbers just the globals it names, and a Context links
+//    those slots to its own variables by name the first time it runs the
+//    Program, so a Context only ever holds the globals of the Programs it
+//    has run.
+//
+//     PulseEngine engine = new PulseEngine();
+//     PulseEngine.Program program = engine.compile(source);
+//     engine.newContext(out).run(program);   // on as many threads as you like
+public final class PulseEngine {
+    // A compiled script.
+    public static final class Program {
+        private final List<Stmt> statements;
+        // the global names it uses, by the slots the Resolver gave them
+        private final Symbol[] globals;
+
+        private Program(List<Stmt> statements, Symbol[] globals) {
+            this.statements = statements;
+            this.globals = globals;
+        }
+    }
+
+    // What Programs run in.
+    public static final class Context {
+        private final Interpreter interpreter = new Interpreter();
+        private final Output output;
+        // each Program's globals, linked to this Context's
+        private final Map<Program, Environment> linked = new WeakHashMap<>();
+
+        private Context(Output output) {
+            this.output = output;
+            interpreter.setOutput(output);
+        }
+
+        // Runs the program's top-level statements. Globals it defines
+        // stay defined for the next program run in this Context. Output
+        // is flushed when it's done.
+        public void run(Program program) throws PulseException {
+            Environment globals = linked.computeIfAbsent(program,
+                p -> interpreter.globals.link(p.globals));
+            try {
+                interpreter.run(program.statements, globals);
+            } catch (RuntimeError error) {
+                throw new PulseException(error);
+            } finally {
+                output.flush();
+            }
+        }
+    }
+
+    public Program compile(String source) throws PulseException {
+        List<String> errors = new ArrayList<>();
+        List<Stmt> statements;
+        // numbers the program's globals; Contexts link to it by name
+        Environment globals = new Environment();
+        Pulse.collectErrors(errors);
+        try {
+            statements = new Parser(new Scanner(source).scan()).parse();
+            if (errors.isEmpty()) {
+                statements = new Optimizer().optimize(statements);
+                new Resolver(globals).resolve(statements);
+            }
+        } finally {
+            Pulse.stopCollectingErrors();
+        }
+
+        if (!errors.isEmpty())
+            throw new PulseException(errors);
+        return new Program(List.copyOf(statements), globals.names());
+    }
+
+    // a Context printing to stdout
+    public Context newContext() {
+        return newContext(System.out);
+    }
+
+    // a Context printing to out, in the platform charset
+    public Context newContext(OutputStream out) {
+        return new Context(new Output(out, Charset.defaultCharset(), false));
+    }
+}
@@ -0,0 +1,24 @@
+package pulse;
+
+import java.util.List;
+
+// A script that didn't compile (every error the compiler found) or that
+// stopped with a runtime error, as PulseEngine reports it.
+public class PulseException extends Exception {
+    private final List<String> errors;
+
+    PulseException(List<String> errors) {
+        super(String.join("\n", errors));
+        this.errors = List.copyOf(errors);
+    }
+
+    PulseException(RuntimeError error) {
+        this(List.of("[line " + error.token.line + "] Runtime Error: "
+            + error.getMessage()));
+    }
+
+    // one message per error, in the form the command line prints them
+    public List<String> errors() {
+        return errors;
+    }
+}
@@ -1,12 +1,24 @@
 package pulse;
 
-import java.util.List;
+import java.util.Arrays;
 
+// A function value: its declaration plus the Cells of whatever it
+// captured from enclosing functions (a flat closure), and the global
+// scope its body was resolved against.
 class PulseFunction implements PulseCallable {
     private final Stmt.Function declaration;
+    private final Cell[] captures;
+    private final Environment globals;
 
-    PulseFunction(Stmt.Function declaration) {
+    PulseFunction(Stmt.Function declaration, Cell[] captures,
+                  Environment globals) {
         this.declaration = declaration;
+        this.captures = captures;
+        this.globals = globals;
+    }
+
+    Stmt.Function declaration() {
+        return declaration;
     }
 
     @Override
@@ -15,21 +27,59 @@ class PulseFunction implements PulseCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(interpreter.globals);
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        // parameters take the first slots of the frame
+        return invoke(interpreter,
+            Arrays.copyOf(arguments, declaration.slots));
+    }
 
-        for (int i = 0; i < declaration.params.size(); ++i) {
-            environment.define(declaration.params.get(i).lexeme,
-                arguments.get(i));
-        }
+    // a frame big enough for every local, for callers that can put the
+    // arguments straight into it
+    Object[] newFrame() {
+        return new Object[declaration.slots];
+    }
+
+    // runs the body in a frame whose first slots hold the arguments
+    Object invoke(Interpreter interpreter, Object[] frame) {
+        Profiler profiler = interpreter.profiler;
+        if (profiler == null)
+            return run(interpreter, frame, null);
 
+        profiler.enter(declaration);
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            return returnValue.value;
+            return run(interpreter, frame, profiler);
+        } finally {
+            profiler.exit();
         }
+    }
+
+    private Object run(Interpreter interpreter, Object[] frame,
+                       Profiler profiler) {
+        PulseFunction function = this;
+        while (true) {
+            Completion completion = function.execute(interpreter, frame);
+            if (completion == Completion.RETURN)
+                return interpreter.takeReturnValue();
+            if (completion != Completion.TAIL_CALL)
+                return null;
+
+            // the body ended in `return g(...)`: run g here, in a loop,
+            // instead of one Java frame deeper
+            function = interpreter.takeTailFunction();
+            frame = interpreter.takeTailFrame();
+            if (profiler != null)
+                profiler.replace(function.declaration);
+        }
+    }
 
-        return null;
+    private Completion execute(Interpreter interpreter, Object[] frame) {
+        if (Metrics.ENABLED)
+            Metrics.called(declaration);
+        // parameters some closure captures live in Cells
+        for (int slot : declaration.capturedParams)
+            frame[slot] = new Cell(frame[slot]);
+        Environment environment = new Environment(globals, frame);
+        return interpreter.executeFunction(declaration.body, environment, captures);
     }
 
     @Override
@@ -0,0 +1,191 @@
+package pulse;
+
+import java.util.Arrays;
+
+// Map value, keyed by strings and numbers.
+//  - Entries are kept in parallel arrays in the order they were added,
+//    which is the order a map prints in. An open-addressing table of
+//    entry indexes (linear probing, at most half full) finds them.
+//  - String and number keys are kept apart: a string key is stored as a
+//    String and hashed with its cached String hash; a number key is
+//    stored in a double[] and hashed from its bits, so looking up a
+//    number never boxes it.
+//  - Number keys match like `==` does on numbers (Double.equals).
+//  - Entries are never removed, so the table needs no tombstones.
+public final class PulseMap {
+    private static final int INITIAL_CAPACITY = 8;
+
+    // entry i: a String key, or null when its key is numbers[i]
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private double[] numbers = new double[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    // entry index + 1 for every slot, 0 if empty; a power of two
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+
+    // a String or a PulseString, or a number
+    public static boolean isKey(Object value) {
+        return value instanceof Double || PulseString.isString(value);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // the value for key, null (nil) if there's none
+    public Object get(Object key) {
+        if (key instanceof Double number)
+            return get((double)number);
+        return get(key.toString());
+    }
+
+    public Object get(String key) {
+        int entry = find(key, hash(key));
+        return entry >= 0 ? values[entry] : null;
+    }
+
+    public Object get(double key) {
+        long bits = Double.doubleToLongBits(key);
+        int entry = find(bits, hash(bits));
+        return entry >= 0 ? values[entry] : null;
+    }
+
+    public void put(Object key, Object value) {
+        if (key instanceof Double number)
+            put((double)number, value);
+        else
+            put(key.toString(), value);
+    }
+
+    public void put(String key, Object value) {
+        int hash = hash(key);
+        int entry = find(key, hash);
+        if (entry >= 0)
+            values[entry] = value;
+        else
+            add(~entry, key, 0, hash, value);
+    }
+
+    public void put(double key, Object value) {
+        long bits = Double.doubleToLongBits(key);
+        int hash = hash(bits);
+        int entry = find(bits, hash);
+        if (entry >= 0)
+            values[entry] = value;
+        else
+            add(~entry, null, key, hash, value);
+    }
+
+    // Lookups return the entry for a key, or ~slot of the empty slot it
+    // would go in
+
+    private int find(String key, int hash) {
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (entry < 0)
+                return ~slot;
+            if (hashes[entry] == hash && key.equals(keys[entry]))
+                return entry;
+        }
+    }
+
+    private int find(long bits, int hash) {
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (entry < 0)
+                return ~slot;
+            if (hashes[entry] == hash && keys[entry] == null
+                    && Double.doubleToLongBits(numbers[entry]) == bits)
+                return entry;
+        }
+    }
+
+    private void add(int slot, String key, double number, int hash, Object value) {
+        if (size == keys.length) {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            values = Arrays.copyOf(values, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+        keys[size] = key;
+        numbers[size] = number;
+        values[size] = value;
+        hashes[size] = hash;
+        table[slot] = ++size;
+        if (size * 2 > table.length)
+            rehash(table.length * 2);
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry = 0; entry < size; ++entry) {
+            int slot = hashes[entry] & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = entry + 1;
+        }
+    }
+
+    // hashes spread so that the low bits, which pick the slot, depend on
+    // all of them
+    private static int hash(String key) {
+        return spread(key.hashCode());
+    }
+
+    private static int hash(long bits) {
+        return spread((int)(bits ^ (bits >>> 32)));
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    // maps compare by value: the same keys with equal values, in any order
+    @Override
+    public boolean equals(Object object) {
+        if (this == object)
+            return true;
+        if (!(object instanceof PulseMap other) || size != other.size)
+            return false;
+        for (int entry = 0; entry < size; ++entry) {
+            // the same key hashes the same in every map
+            int match = keys[entry] != null
+                ? other.find((String)keys[entry], hashes[entry])
+                : other.find(Double.doubleToLongBits(numbers[entry]), hashes[entry]);
+            if (match < 0 || !Interpreter.isEqual(values[entry], other.values[match]))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int entry = 0; entry < size; ++entry) {
+            Object value = values[entry];
+            hash += hashes[entry] ^ (value == null ? 0 : value.hashCode());
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int entry = 0; entry < size; ++entry) {
+            if (entry > 0)
+                builder.append(", ");
+            if (keys[entry] != null)
+                builder.append(keys[entry]);
+            else
+                builder.append(numbers[entry]);
+            builder.append(": ").append(values[entry]);
+        }
+        return builder.append("}").toString();
+    }
+}
@@ -0,0 +1,35 @@
+package pulse;
+
+// A native function: a Java body behind PulseCallable. A body raises
+// Pulse errors as RuntimeError(message); the interpreter adds the line
+// of the call.
+final class PulseNative implements PulseCallable {
+    interface Body {
+        Object call(Interpreter interpreter, Object[] arguments)
+            throws InterruptedException;
+    }
+
+    private final int arity;
+    private final Body body;
+
+    PulseNative(int arity, Body body) {
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public int arity() { return arity; }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        try {
+            return body.call(interpreter, arguments);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError("Interrupted.");
+        }
+    }
+
+    @Override
+    public String toString() { return "<native fn>"; }
+}
@@ -0,0 +1,127 @@
+package pulse;
+
+// The string a `+` builds. Literals stay plain Strings; the result of
+// concatenating is one of these, so `s = s + x` in a loop costs
+// amortized O(|x|) instead of copying all of s every time.
+//  - A PulseString is a prefix of an append-only StringBuilder that
+//    other PulseStrings may share. Appending to the one that covers the
+//    whole buffer appends in place; appending to an older, shorter one
+//    copies its prefix into a buffer of its own first, so no value ever
+//    changes.
+//  - The characters are only flattened into a String when the value is
+//    observed (printed, compared, used as a String), and that String is
+//    kept.
+public final class PulseString implements CharSequence {
+    // shared with the PulseStrings this one was appended from or to
+    private final StringBuilder buffer;
+    private final int length;
+    // the flattened value, once something has asked for it
+    private String flat = null;
+
+    private PulseString(StringBuilder buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    // left + right, where left is a String or a PulseString and right is
+    // anything with a text form
+    public static PulseString concat(CharSequence left, CharSequence right) {
+        if (left instanceof PulseString string)
+            return string.append(right);
+
+        // room to grow: the first concatenation is usually not the last
+        StringBuilder buffer = new StringBuilder(
+            Math.max(16, 2 * (left.length() + right.length())));
+        buffer.append(left).append(right);
+        return new PulseString(buffer, buffer.length());
+    }
+
+    // a String or a PulseString
+    public static boolean isString(Object value) {
+        return value instanceof String || value instanceof PulseString;
+    }
+
+    private PulseString append(CharSequence tail) {
+        // Read a PulseString tail before taking this buffer's lock: it may
+        // be a view of this same buffer (which is about to change), and
+        // reading another buffer under this lock would hold two locks at
+        // once, in whatever order two threads happen to append in.
+        if (tail instanceof PulseString string)
+            tail = string.toString();
+
+        synchronized (buffer) {
+            if (buffer.length() == length) {
+                buffer.append(tail);
+                return new PulseString(buffer, buffer.length());
+            }
+        }
+
+        // something longer was already built on this buffer
+        StringBuilder copy = new StringBuilder(
+            Math.max(16, 2 * (length + tail.length())));
+        synchronized (buffer) {
+            copy.append(buffer, 0, length);
+        }
+        copy.append(tail);
+        return new PulseString(copy, copy.length());
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException(index);
+        synchronized (buffer) {
+            return buffer.charAt(index);
+        }
+    }
+
+    // copies characters [start, end) into dst, like String.getChars()
+    public void getChars(int start, int end, char[] dst, int dstBegin) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException(start);
+        String string = flat;
+        if (string != null) {
+            string.getChars(start, end, dst, dstBegin);
+            return;
+        }
+        synchronized (buffer) {
+            buffer.getChars(start, end, dst, dstBegin);
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String string = flat;
+        if (string == null) {
+            synchronized (buffer) {
+                string = buffer.substring(0, length);
+            }
+            flat = string;
+        }
+        return string;
+    }
+
+    // equal to a String or PulseString with the same characters (a String
+    // doesn't know that, so compare with the PulseString first)
+    @Override
+    public boolean equals(Object other) {
+        if (other instanceof PulseString string)
+            return length == string.length && toString().equals(string.toString());
+        return other instanceof String string && toString().equals(string);
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
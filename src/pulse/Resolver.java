@@ -0,0 +1,409 @@
+/*
+ * Static pass between the Parser and the Interpreter.
+ *  - Gives every local a fixed (depth, slot) so the Interpreter can index
+ *    straight into a frame instead of looking names up.
+ *  - Blocks that declare nothing get no scope (and no frame at runtime).
+ *  - Anything not found in a local scope is a global (depth -1), whose
+ *    slot comes from the interpreter's global environment.
+ *  - A local of an enclosing function is reached through the closure
+ *    (depth -2, slot = index into its captures). Only locals some closure
+ *    actually captures are marked, and only they live in a Cell; the
+ *    rest stay plain frame slots.
+ *  - Arithmetic known to produce a number is marked numeric, so the
+ *    Interpreter can evaluate it without boxing.
+ */
+
+package pulse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // depths that aren't a number of scopes out
+    static final int GLOBAL = -1;
+    static final int UPVALUE = -2;
+
+    // How a closure gets hold of one captured variable when it's created:
+    // the Cell in a slot of the enclosing function's frame (local), or one
+    // of the enclosing function's own captures (!local, depth unused).
+    record Capture(boolean local, int depth, int index) {}
+
+    // a local variable, and whatever has to know if it's captured
+    private static class Local {
+        final int slot;
+        boolean captured = false;
+        // the Var/Function statements that declare it and the Variable/
+        // Assign expressions in its own function that use it
+        final List<Object> references = new ArrayList<>();
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    // names declared in one local scope, in slot order
+    private static class Scope {
+        final Map<Symbol, Local> locals = new HashMap<>();
+
+        Local declare(Symbol name) {
+            // redeclaring a name in the same scope reuses its slot
+            return locals.computeIfAbsent(name, n -> new Local(locals.size()));
+        }
+    }
+
+    // the function being resolved (or the top-level code)
+    private static class FunctionScope {
+        final FunctionScope enclosing;
+        // innermost scope is last; empty at the top level
+        final List<Scope> scopes = new ArrayList<>();
+        final List<Capture> captures = new ArrayList<>();
+
+        FunctionScope(FunctionScope enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private enum FunctionType { NONE, FUNCTION }
+
+    private final Environment globals;
+    private FunctionScope function = new FunctionScope(null);
+    private FunctionType currentFunction = FunctionType.NONE;
+
+    Resolver(Interpreter interpreter) {
+        this(interpreter.globals);
+    }
+
+    Resolver(Environment globals) {
+        this.globals = globals;
+    }
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements)
+            resolve(statement);
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void beginScope() {
+        function.scopes.add(new Scope());
+    }
+
+    // once a scope is done it's known which of its locals are captured
+    private Scope endScope() {
+        Scope scope = function.scopes.remove(function.scopes.size() - 1);
+        for (Local local : scope.locals.values()) {
+            if (local.captured)
+                markCaptured(local);
+        }
+        return scope;
+    }
+
+    private static void markCaptured(Local local) {
+        for (Object reference : local.references) {
+            if (reference instanceof Expr.Variable variable)
+                variable.captured = true;
+            else if (reference instanceof Expr.Assign assign)
+                assign.captured = true;
+            else if (reference instanceof Stmt.Var var)
+                var.captured = true;
+            else if (reference instanceof Stmt.Function declaration)
+                declaration.captured = true;
+        }
+    }
+
+    // slot for a new variable in the innermost scope
+    private int declare(Token name, Stmt declaration) {
+        List<Scope> scopes = function.scopes;
+        if (scopes.isEmpty())
+            return globals.slotOf(name.symbol);
+        Local local = scopes.get(scopes.size() - 1).declare(name.symbol);
+        local.references.add(declaration);
+        return local.slot;
+    }
+
+    private void resolveLocal(Expr expr, Token name) {
+        List<Scope> scopes = function.scopes;
+        for (int i = scopes.size() - 1; i >= 0; --i) {
+            Local local = scopes.get(i).locals.get(name.symbol);
+            if (local != null) {
+                local.references.add(expr);
+                bind(expr, scopes.size() - 1 - i, local.slot);
+                return;
+            }
+        }
+
+        int capture = resolveCapture(function, name);
+        if (capture >= 0) {
+            bind(expr, UPVALUE, capture);
+            return;
+        }
+
+        // not found locally, assume it is global
+        bind(expr, GLOBAL, globals.slotOf(name.symbol));
+    }
+
+    // index of name among function's captures (adding it, and capturing it
+    // in every function in between, the first time), or -1 if no enclosing
+    // function has a local by that name
+    private static int resolveCapture(FunctionScope function, Token name) {
+        FunctionScope enclosing = function.enclosing;
+        if (enclosing == null)
+            return -1;
+
+        List<Scope> scopes = enclosing.scopes;
+        for (int i = scopes.size() - 1; i >= 0; --i) {
+            Local local = scopes.get(i).locals.get(name.symbol);
+            if (local != null) {
+                local.captured = true;
+                return addCapture(function,
+                    new Capture(true, scopes.size() - 1 - i, local.slot));
+            }
+        }
+
+        int index = resolveCapture(enclosing, name);
+        if (index < 0)
+            return -1;
+        return addCapture(function, new Capture(false, 0, index));
+    }
+
+    private static int addCapture(FunctionScope function, Capture capture) {
+        int index = function.captures.indexOf(capture);
+        if (index >= 0)
+            return index;
+        function.captures.add(capture);
+        return function.captures.size() - 1;
+    }
+
+    private static void bind(Expr expr, int depth, int slot) {
+        if (expr instanceof Expr.Variable variable) {
+            variable.depth = depth;
+            variable.slot = slot;
+        } else if (expr instanceof Expr.Assign assign) {
+            assign.depth = depth;
+            assign.slot = slot;
+        }
+    }
+
+    // whether expr is known to evaluate to a number (or fail trying), so
+    // the Interpreter can keep it on its unboxed evaluateNumber() path
+    static boolean isNumeric(Expr expr) {
+        if (expr instanceof Expr.Literal literal)
+            return literal.value instanceof Double;
+        if (expr instanceof Expr.Grouping grouping)
+            return isNumeric(grouping.expression);
+        if (expr instanceof Expr.Binary binary)
+            return binary.numeric;
+        if (expr instanceof Expr.Unary unary)
+            return unary.numeric;
+        return false;
+    }
+
+    private void resolveFunction(Stmt.Function declaration) {
+        FunctionType enclosingFunction = currentFunction;
+        currentFunction = FunctionType.FUNCTION;
+        function = new FunctionScope(function);
+
+        beginScope();
+        Scope scope = function.scopes.get(0);
+        List<Local> params = new ArrayList<>();
+        for (Token param : declaration.params)
+            params.add(scope.declare(param.symbol));
+        resolve(declaration.body);
+        endScope();
+
+        declaration.slots = scope.locals.size();
+        declaration.capturedParams = params.stream()
+            .filter(local -> local.captured)
+            .mapToInt(local -> local.slot)
+            .distinct()
+            .toArray();
+        declaration.captures = function.captures.toArray(new Capture[0]);
+
+        function = function.enclosing;
+        currentFunction = enclosingFunction;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // a block that declares nothing doesn't need its own frame
+        if (!declaresAnything(stmt.statements)) {
+            stmt.slots = 0;
+            resolve(stmt.statements);
+            return null;
+        }
+
+        beginScope();
+        resolve(stmt.statements);
+        stmt.slots = endScope().locals.size();
+        return null;
+    }
+
+    private static boolean declaresAnything(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var
+                    || statement instanceof Stmt.Function)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // declared before the body is resolved, so it can call itself
+        stmt.slot = declare(stmt.name, stmt);
+        resolveFunction(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null)
+            resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (currentFunction == FunctionType.NONE)
+            Pulse.error(stmt.keyword, "Can't return from top-level code.");
+
+        if (stmt.value != null)
+            resolve(stmt.value);
+        // nothing is left to do in this function after the call returns
+        stmt.tailCall = currentFunction == FunctionType.FUNCTION
+            && stmt.value instanceof Expr.Call;
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // the initializer is resolved first, so `var a = a;` in a block
+        // still reads the outer a
+        if (stmt.initializer != null)
+            resolve(stmt.initializer);
+        stmt.slot = declare(stmt.name, stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        resolveLocal(expr, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+
+        // -, *, / always produce numbers; + only when both operands do
+        switch (expr.operator.type) {
+            case MINUS, STAR, SLASH -> expr.numeric = true;
+            case PLUS -> expr.numeric =
+                isNumeric(expr.left) && isNumeric(expr.right);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        for (Expr argument : expr.arguments)
+            resolve(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        resolve(expr.object);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        expr.numeric = expr.operator.type == TokenType.MINUS
+            && isNumeric(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        resolveLocal(expr, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        if (expr.values != null) {
+            for (Expr value : expr.values)
+                resolve(value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSubscriptExpr(Expr.Subscript expr) {
+        resolve(expr.object);
+        resolve(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitMapExpr(Expr.Map expr) {
+        for (int i = 0; i < expr.keys.size(); ++i) {
+            resolve(expr.keys.get(i));
+            resolve(expr.values.get(i));
+        }
+        return null;
+    }
+}
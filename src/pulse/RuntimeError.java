@@ -7,4 +7,10 @@ public class RuntimeError extends RuntimeException {
         super(message);
         this.token = token;
     }
+
+    // from a native function, which doesn't know where it was called
+    // from; the interpreter fills in the call's token
+    RuntimeError(String message) {
+        this(null, message);
+    }
 }
@@ -1,6 +1,6 @@
 package pulse;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,8 +8,8 @@ import java.util.Map;
 import static pulse.TokenType.*;
 
 public class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final CharSequence source;
+    private TokenStream tokens;
     private int start = 0;
     private int current = 0;
     private int line = 1;
@@ -35,18 +35,53 @@ public class Scanner {
         keywords.put("while",  WHILE);
     }
 
-    Scanner(String source) {
+    // the keywords again, grouped by first letter, so an identifier can be
+    // checked against a few of them in place without cutting it out of
+    // the source
+    private static final String[][] keywordsByLetter = new String[26][0];
+    static {
+        for (String keyword : keywords.keySet()) {
+            String[] group = keywordsByLetter[keyword.charAt(0) - 'a'];
+            group = Arrays.copyOf(group, group.length + 1);
+            group[group.length - 1] = keyword;
+            keywordsByLetter[keyword.charAt(0) - 'a'] = group;
+        }
+    }
+
+    Scanner(CharSequence source) {
         this.source = source;
     }
 
-    public List<Token> scanTokens() {
+    // tokens packed into int arrays, all scanned up front
+    TokenStream scan() {
+        tokens = new TokenStream(source, null);
+        scanChunk(Integer.MAX_VALUE);
+        return tokens;
+    }
+
+    // tokens packed into int arrays, scanned as the Parser reads them
+    TokenStream stream() {
+        tokens = new TokenStream(source, this);
+        return tokens;
+    }
+
+    // scans until `limit` more tokens are in the stream; true once the
+    // whole source is scanned (and EOF added)
+    boolean scanChunk(int limit) {
+        int size = tokens.size();
         while (!isAtEnd()) {
+            if (tokens.size() - size >= limit)
+                return false;
             // We are at the beginning of the next lexeme.
             start = current;
             scanToken();
         }
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+        tokens.add(EOF, current, 0, line);
+        return true;
+    }
+
+    public List<Token> scanTokens() {
+        return scan().toTokens();
     }
 
     private boolean isAtEnd() {
@@ -67,6 +102,7 @@ public class Scanner {
             case '-' -> addToken(MINUS);
             case '+' -> addToken(PLUS);
             case ';' -> addToken(SEMICOLON);
+            case ':' -> addToken(COLON);
             case '*' -> addToken(STAR);
             case '!' -> addToken(match('=') ? BANG_EQUAL : BANG);
             case '=' -> addToken(match('=') ? EQUAL_EQUAL : EQUAL);
@@ -89,7 +125,7 @@ public class Scanner {
                 else if (isAlpha(c))
                     identifier();
                 else
-                    Pulse.error(line, "Unexpected character.");
+                    unexpected(c);
             }
         }
     }
@@ -98,12 +134,7 @@ public class Scanner {
         while (isAlphaNumeric(peek()))
             advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null)
-            type = IDENTIFIER;
-
-        addToken(type);
+        addToken(identifierType());
     }
     private void number() {
         while (isDigit(peek()))
@@ -114,8 +145,8 @@ public class Scanner {
             while (isDigit(peek()))
                 advance();
         }
-        addToken(NUMBER,
-            Double.parseDouble(source.substring(start, current)));
+        // the value is parsed only if the Parser asks for it
+        addToken(NUMBER);
     }
     private void string() {
         while (peek() != '"' && !isAtEnd()) {
@@ -129,9 +160,28 @@ public class Scanner {
         }
         // the closing ".
         advance();
-        // trim the surrounding quotes
-        String value = source.substring(start + 1, current - 1);
-        addToken(STRING, value);
+        addToken(STRING);
+    }
+
+    // keyword the current lexeme spells, or IDENTIFIER
+    private TokenType identifierType() {
+        char first = source.charAt(start);
+        if (first < 'a' || first > 'z')
+            return IDENTIFIER;
+        for (String keyword : keywordsByLetter[first - 'a']) {
+            if (lexemeEquals(keyword))
+                return keywords.get(keyword);
+        }
+        return IDENTIFIER;
+    }
+    private boolean lexemeEquals(String text) {
+        if (current - start != text.length())
+            return false;
+        for (int i = 1; i < text.length(); ++i) {
+            if (source.charAt(start + i) != text.charAt(i))
+                return false;
+        }
+        return true;
     }
 
     private boolean match(char expected) {
@@ -168,11 +218,16 @@ public class Scanner {
         return source.charAt(current++);
     }
 
-    private void addToken(TokenType type) {
-        addToken(type, null);
+    // one error per character, however many chars it takes up
+    private void unexpected(char c) {
+        Pulse.error(line, "Unexpected character.");
+        if (source instanceof MappedSource mapped)
+            current = mapped.characterEnd(start);
+        else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(peek()))
+            ++current;
     }
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+
+    private void addToken(TokenType type) {
+        tokens.add(type, start, current - start, line);
     }
 }
@@ -24,6 +24,8 @@ abstract class Stmt {
 
         final List<Stmt> statements;
 
+        int slots;
+
         Block(List<Stmt> statements) {
             this.statements = statements;
         }
@@ -52,6 +54,12 @@ abstract class Stmt {
         final List<Token> params;
         final List<Stmt> body;
 
+        int slot;
+        int slots;
+        boolean captured;
+        int[] capturedParams;
+        Resolver.Capture[] captures;
+
         Function(Token name, List<Token> params, List<Stmt> body) {
             this.name = name;
             this.params = params;
@@ -98,6 +106,8 @@ abstract class Stmt {
         final Token keyword;
         final Expr value;
 
+        boolean tailCall;
+
         Return(Token keyword, Expr value) {
             this.keyword = keyword;
             this.value = value;
@@ -113,6 +123,9 @@ abstract class Stmt {
         final Token name;
         final Expr initializer;
 
+        int slot;
+        boolean captured;
+
         Var(Token name, Expr initializer) {
             this.name = name;
             this.initializer = initializer;
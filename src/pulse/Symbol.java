@@ -0,0 +1,92 @@
+package pulse;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// An interned identifier. Every occurrence of a name, in every script,
+// shares one Symbol:
+//  - names compare by identity, and hash without looking at their
+//    characters again (equals is Object's)
+//  - interning reads the characters in place, so an identifier seen
+//    before costs no String
+//  - the table is a ConcurrentHashMap, so threads compiling at once
+//    look names up without waiting on each other
+final class Symbol {
+    final String name;
+    private final int hash;
+
+    private Symbol(String name, int hash) {
+        this.name = name;
+        this.hash = hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    // the characters [start, end) of some source, as a table key; the
+    // table's own keys are over the Symbol's name
+    private static final class Key {
+        private final CharSequence source;
+        private final int start;
+        private final int end;
+        private final int hash;
+
+        Key(CharSequence source, int start, int end, int hash) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key other) || other.hash != hash
+                    || other.end - other.start != end - start)
+                return false;
+            for (int i = 0; i < end - start; ++i) {
+                if (source.charAt(start + i) != other.source.charAt(other.start + i))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static final ConcurrentHashMap<Key, Symbol> table =
+        new ConcurrentHashMap<>(1024);
+
+    static Symbol intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    // the Symbol for the characters [start, end) of source, made the
+    // first time they're seen
+    static Symbol intern(CharSequence source, int start, int end) {
+        int hash = hash(source, start, end);
+        Symbol symbol = table.get(new Key(source, start, end, hash));
+        if (symbol != null)
+            return symbol;
+
+        String name = source.subSequence(start, end).toString();
+        return table.computeIfAbsent(new Key(name, 0, name.length(), hash),
+            key -> new Symbol(name, hash));
+    }
+
+    // String.hashCode(), so a Symbol hashes like its name
+    private static int hash(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i)
+            hash = 31 * hash + source.charAt(i);
+        return hash;
+    }
+}
@@ -5,12 +5,26 @@ public class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    // an IDENTIFIER's name, interned; null for other tokens
+    final Symbol symbol;
 
     Token(TokenType type, String lexeme, Object literal, int line) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = type == TokenType.IDENTIFIER
+            ? Symbol.intern(lexeme)
+            : null;
+    }
+
+    // an IDENTIFIER
+    Token(Symbol name, int line) {
+        this.type = TokenType.IDENTIFIER;
+        this.lexeme = name.name;
+        this.literal = null;
+        this.line = line;
+        this.symbol = name;
     }
 
     public String toString() {
@@ -0,0 +1,163 @@
+package pulse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Scanned tokens packed into parallel int arrays (16 bytes a token).
+//  - A token is just its index; its lexeme and literal are cut out of the
+//    source only when the Parser asks for them, and punctuation never is.
+//  - token(i) builds a Token for the parts of the tree that keep one
+//    (names, operators, error messages); names are interned as Symbols.
+//  - A streaming stream is filled by its Scanner a chunk at a time as the
+//    Parser reads ahead, and forgets the tokens the Parser is done with,
+//    so only the statement being parsed is ever held in memory.
+final class TokenStream {
+    private static final TokenType[] TYPES = TokenType.values();
+    // tokens scanned at a time when streaming
+    private static final int CHUNK = 4096;
+
+    private final CharSequence source;
+    private final boolean streaming;
+    // fills a streaming stream on demand; null once it has scanned it all
+    private Scanner scanner;
+    private int[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    // the arrays hold tokens [first, first + count)
+    private int first = 0;
+    private int count = 0;
+
+    TokenStream(CharSequence source, Scanner scanner) {
+        this.source = source;
+        this.scanner = scanner;
+        this.streaming = scanner != null;
+        // everything at once: roughly one token per 4 characters of
+        // typical source; streaming: a couple of chunks
+        int capacity = streaming
+            ? 2 * CHUNK
+            : Math.max(16, source.length() / 4);
+        this.types = new int[capacity];
+        this.starts = new int[capacity];
+        this.lengths = new int[capacity];
+        this.lines = new int[capacity];
+    }
+
+    void add(TokenType type, int start, int length, int line) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        types[count] = type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+        ++count;
+    }
+
+    // tokens scanned so far, counting any already forgotten
+    int size() {
+        return first + count;
+    }
+
+    // array position of a token, scanning up to it first if need be
+    private int at(int index) {
+        if (index >= first + count)
+            scanTo(index);
+        return index - first;
+    }
+    // kept out of at() so that stays small enough to inline
+    private void scanTo(int index) {
+        while (index >= first + count && scanner != null) {
+            if (scanner.scanChunk(CHUNK))
+                scanner = null;
+        }
+    }
+
+    // the Parser won't look at any token before index again
+    void discardBefore(int index) {
+        if (!streaming)
+            return;
+        int discard = index - first;
+        // only worth moving the rest down once it frees half the arrays
+        if (discard < CHUNK || discard < count / 2)
+            return;
+        count -= discard;
+        System.arraycopy(types, discard, types, 0, count);
+        System.arraycopy(starts, discard, starts, 0, count);
+        System.arraycopy(lengths, discard, lengths, 0, count);
+        System.arraycopy(lines, discard, lines, 0, count);
+        first = index;
+    }
+
+    // at() may grow the arrays, so it has to run before they're read
+    TokenType type(int index) {
+        int i = at(index);
+        return TYPES[types[i]];
+    }
+
+    int line(int index) {
+        int i = at(index);
+        return lines[i];
+    }
+
+    String lexeme(int index) {
+        int i = at(index);
+        return text(starts[i], starts[i] + lengths[i]);
+    }
+
+    // value of a NUMBER or STRING token, null for anything else
+    Object literal(int index) {
+        int i = at(index);
+        int start = starts[i];
+        int end = start + lengths[i];
+        return switch (TYPES[types[i]]) {
+            case NUMBER -> number(start, end);
+            // trim the surrounding quotes
+            case STRING -> text(start + 1, end - 1);
+            default -> null;
+        };
+    }
+
+    // whole numbers of up to 15 digits are exact as doubles and read
+    // straight from the source; anything else goes through parseDouble
+    private double number(int start, int end) {
+        if (end - start > 15)
+            return Double.parseDouble(text(start, end));
+        long value = 0;
+        for (int i = start; i < end; ++i) {
+            char c = source.charAt(i);
+            if (c == '.')
+                return Double.parseDouble(text(start, end));
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private String text(int start, int end) {
+        return source.subSequence(start, end).toString();
+    }
+
+    Token token(int index) {
+        // an identifier seen before is looked up in place, not copied out
+        int i = at(index);
+        if (TYPES[types[i]] == TokenType.IDENTIFIER) {
+            int start = starts[i];
+            return new Token(
+                Symbol.intern(source, start, start + lengths[i]), lines[i]);
+        }
+        return new Token(type(index), lexeme(index), literal(index), line(index));
+    }
+
+    // every token as an object, the way the Scanner used to return them
+    List<Token> toTokens() {
+        List<Token> tokens = new ArrayList<>(count);
+        for (int i = first; i < first + count; ++i)
+            tokens.add(token(i));
+        return tokens;
+    }
+}
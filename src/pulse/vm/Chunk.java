@@ -0,0 +1,49 @@
+package pulse.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// A flat array of bytecode plus the constants it refers to.
+public final class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64]; // source line of each byte, for errors
+    int count = 0;
+
+    Object[] constants = new Object[8];
+    int constantCount = 0;
+    // so equal numbers and strings share one constant
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    public void write(int b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte)b;
+        lines[count] = line;
+        ++count;
+    }
+
+    // overwrite a u16 operand written earlier (jump targets)
+    public void patch(int offset, int value) {
+        code[offset] = (byte)((value >> 8) & 0xff);
+        code[offset + 1] = (byte)(value & 0xff);
+    }
+
+    public int addConstant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (index != null)
+            return index;
+
+        if (constantCount == constants.length)
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        constants[constantCount] = value;
+        constantIndex.put(value, constantCount);
+        return constantCount++;
+    }
+
+    public int count() {
+        return count;
+    }
+}
@@ -0,0 +1,18 @@
+package pulse.vm;
+
+// A function together with the variables it captured. Functions that
+// capture nothing are left as plain CompiledFunctions.
+final class Closure {
+    final CompiledFunction function;
+    final Upvalue[] upvalues;
+
+    Closure(CompiledFunction function, Upvalue[] upvalues) {
+        this.function = function;
+        this.upvalues = upvalues;
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
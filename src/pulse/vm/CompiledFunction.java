@@ -0,0 +1,27 @@
+package pulse.vm;
+
+// A function (or the top-level script) compiled to bytecode.
+public final class CompiledFunction {
+    final String name;
+    final int arity;
+    // variables it captures; if any, it only runs as a Closure
+    final int upvalueCount;
+    final Chunk chunk;
+    // stack slots its array and map literals can fill at once, on top of
+    // what every frame gets
+    final int literalSlots;
+
+    public CompiledFunction(String name, int arity, int upvalueCount,
+                            Chunk chunk, int literalSlots) {
+        this.name = name;
+        this.arity = arity;
+        this.upvalueCount = upvalueCount;
+        this.chunk = chunk;
+        this.literalSlots = literalSlots;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name + ">";
+    }
+}
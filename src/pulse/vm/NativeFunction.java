@@ -0,0 +1,7 @@
+package pulse.vm;
+
+// A function implemented in Java, callable from bytecode.
+interface NativeFunction {
+    int arity();
+    Object call(Object[] arguments);
+}
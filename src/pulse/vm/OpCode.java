@@ -0,0 +1,59 @@
+package pulse.vm;
+
+// One byte per instruction, followed by its operands (if any).
+//  - u8:  a single unsigned byte
+//  - u16: two bytes, high byte first
+public final class OpCode {
+    private OpCode() {}
+
+    public static final byte CONSTANT      = 0;  // u16 constant index
+    public static final byte NIL           = 1;
+    public static final byte TRUE          = 2;
+    public static final byte FALSE         = 3;
+    public static final byte POP           = 4;
+
+    public static final byte GET_LOCAL     = 5;  // u8 frame slot
+    public static final byte SET_LOCAL     = 6;  // u8 frame slot
+    public static final byte GET_GLOBAL    = 7;  // u16 global slot
+    public static final byte SET_GLOBAL    = 8;  // u16 global slot
+    public static final byte DEFINE_GLOBAL = 9;  // u16 global slot
+
+    public static final byte EQUAL         = 10;
+    public static final byte GREATER       = 11;
+    public static final byte GREATER_EQUAL = 12;
+    public static final byte LESS          = 13;
+    public static final byte LESS_EQUAL    = 14;
+    public static final byte ADD           = 15;
+    public static final byte SUBTRACT      = 16;
+    public static final byte MULTIPLY      = 17;
+    public static final byte DIVIDE        = 18;
+    public static final byte NOT           = 19;
+    public static final byte NEGATE        = 20;
+
+    public static final byte PRINT         = 21;
+    public static final byte JUMP          = 22; // u16 forward offset
+    public static final byte JUMP_IF_FALSE = 23; // u16 forward offset, keeps condition
+    public static final byte LOOP          = 24; // u16 backward offset
+    public static final byte CALL          = 25; // u8 argument count
+    public static final byte RETURN        = 26;
+
+    public static final byte ARRAY         = 27; // u16 element count
+    public static final byte GET_INDEX     = 28;
+    public static final byte SET_INDEX     = 29;
+
+    // u16 function constant, then a (u8 isLocal, u8 index) pair per
+    // variable it captures: a local slot of the current frame, or one of
+    // the current closure's upvalues
+    public static final byte CLOSURE       = 30;
+    public static final byte GET_UPVALUE   = 31; // u8 upvalue index
+    public static final byte SET_UPVALUE   = 32; // u8 upvalue index
+    public static final byte CLOSE_UPVALUE = 33; // pops a captured local
+
+    // u8 argument count; a CALL whose result the caller returns at once,
+    // so a Pulse callee takes over the caller's frame (the RETURN after it
+    // then only runs for natives)
+    public static final byte TAIL_CALL     = 34;
+
+    // u16 entry count; pops a key and a value per entry
+    public static final byte MAP           = 35;
+}
@@ -0,0 +1,18 @@
+package pulse.vm;
+
+// A local variable captured by a closure.
+//  - Open while the local is still on the stack: it refers to the local's
+//    stack slot, so the frame and the closure see the same variable.
+//  - Closed (slot -1) once that frame is done with it: the value moves in
+//    here and lives on with the closure.
+final class Upvalue {
+    int slot;
+    Object closed = null;
+    // next open upvalue, further down the stack
+    Upvalue next;
+
+    Upvalue(int slot, Upvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
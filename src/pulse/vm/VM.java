@@ -0,0 +1,568 @@
+/*
+ * Stack-based bytecode interpreter.
+ *  - Operands and locals share one value stack; a call frame's locals
+ *    start at its base, with the callee itself just below.
+ *  - Call frames live in parallel arrays, so Pulse calls never recurse
+ *    on the Java stack.
+ *  - Captured locals stay on the stack while their frame runs (an open
+ *    Upvalue points at the slot), and are moved into the Upvalue when
+ *    their scope ends or the frame returns.
+ */
+
+package pulse.vm;
+
+import pulse.Output;
+import pulse.PulseMap;
+import pulse.PulseString;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class VM {
+    private static final int DEFAULT_MAX_FRAMES = 4096;
+    // room every frame gets for its locals and temporaries
+    private static final int FRAME_SLOTS = 512;
+
+    // marks a global that has a slot but hasn't been defined yet
+    private static final Object UNDEFINED = new Object();
+
+    private Object[] stack = new Object[FRAME_SLOTS * 16];
+    private int sp = 0;
+
+    private CompiledFunction[] frameFunctions = new CompiledFunction[64];
+    private int[] frameIps = new int[64];
+    private int[] frameBases = new int[64];
+    // the running closure's upvalues; null for plain functions
+    private Upvalue[][] frameUpvalues = new Upvalue[64][];
+    private int frameCount = 0;
+    // deepest the calls may nest; the frame arrays grow on the heap as
+    // needed, so this is the only limit
+    private int maxFrames = DEFAULT_MAX_FRAMES;
+    // where PRINT writes
+    private Output output = Output.standard();
+
+    // open upvalues, highest stack slot first
+    private Upvalue openUpvalues = null;
+
+    private final Map<String, Integer> globalSlots = new HashMap<>();
+    private final List<String> globalNames = new ArrayList<>();
+    private Object[] globals = new Object[16];
+
+    public VM() {
+        Arrays.fill(globals, UNDEFINED);
+        defineNative("clock", new NativeFunction() {
+            @Override
+            public int arity() { return 0; }
+
+            @Override
+            public Object call(Object[] arguments) {
+                return (double)System.currentTimeMillis()/1000.0;
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+    }
+
+    public void setMaxFrames(int maxFrames) {
+        this.maxFrames = maxFrames;
+    }
+
+    public void setOutput(Output output) {
+        this.output = output;
+    }
+
+    private void defineNative(String name, NativeFunction function) {
+        globals[globalSlot(name)] = function;
+    }
+
+    // slot for a global name, handing out a new one the first time it's seen
+    public int globalSlot(String name) {
+        Integer slot = globalSlots.get(name);
+        if (slot != null)
+            return slot;
+
+        slot = globalNames.size();
+        globalSlots.put(name, slot);
+        globalNames.add(name);
+        if (slot >= globals.length) {
+            int oldLength = globals.length;
+            globals = Arrays.copyOf(globals, oldLength * 2);
+            Arrays.fill(globals, oldLength, globals.length, UNDEFINED);
+        }
+        return slot;
+    }
+
+    public void interpret(CompiledFunction script) {
+        sp = 0;
+        frameCount = 0;
+        reserveFrame(sp, script);
+        stack[sp++] = script;
+        pushFrame(script, null, sp);
+        try {
+            run();
+        } catch (VMRuntimeError error) {
+            // drop everything an aborted run left behind
+            Arrays.fill(stack, null);
+            Arrays.fill(frameFunctions, null);
+            Arrays.fill(frameUpvalues, null);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+            throw error;
+        }
+    }
+
+    private void pushFrame(CompiledFunction function, Upvalue[] upvalues, int base) {
+        if (frameCount == frameFunctions.length) {
+            int capacity = frameCount * 2;
+            frameFunctions = Arrays.copyOf(frameFunctions, capacity);
+            frameIps = Arrays.copyOf(frameIps, capacity);
+            frameBases = Arrays.copyOf(frameBases, capacity);
+            frameUpvalues = Arrays.copyOf(frameUpvalues, capacity);
+        }
+        frameFunctions[frameCount] = function;
+        frameIps[frameCount] = 0;
+        frameBases[frameCount] = base;
+        frameUpvalues[frameCount] = upvalues;
+        ++frameCount;
+    }
+
+    // room on the stack for a frame of function starting at about sp:
+    // its locals and temporaries, and the values of its literals
+    private Object[] reserveFrame(int sp, CompiledFunction function) {
+        int needed = sp + FRAME_SLOTS + function.literalSlots;
+        if (needed > stack.length)
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, needed));
+        return stack;
+    }
+
+    // the open upvalue for a stack slot, shared by every closure capturing it
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot)
+            return upvalue;
+
+        Upvalue created = new Upvalue(slot, upvalue);
+        if (previous == null)
+            openUpvalues = created;
+        else
+            previous.next = created;
+        return created;
+    }
+
+    // calls a native function with the arguments on top of the stack,
+    // leaving its result in place of them and the callee; returns the new sp
+    private int callNative(CompiledFunction function, int ip,
+                           Object callee, int argCount, int sp) {
+        if (!(callee instanceof NativeFunction target))
+            throw error(function, ip, "Can only call functions and classes.");
+        if (argCount != target.arity())
+            throw arityError(function, ip, target.arity(), argCount);
+
+        Object[] arguments = Arrays.copyOfRange(stack, sp - argCount, sp);
+        Arrays.fill(stack, sp - argCount - 1, sp, null);
+        sp -= argCount + 1;
+        stack[sp++] = target.call(arguments);
+        return sp;
+    }
+
+    // closes every open upvalue for slot `from` and above
+    private void closeUpvalues(Object[] stack, int from) {
+        while (openUpvalues != null && openUpvalues.slot >= from) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+            upvalue.next = null;
+        }
+    }
+
+    private void run() {
+        CompiledFunction function = frameFunctions[frameCount - 1];
+        byte[] code = function.chunk.code;
+        Object[] constants = function.chunk.constants;
+        int ip = 0;
+        int base = frameBases[frameCount - 1];
+        Upvalue[] upvalues = frameUpvalues[frameCount - 1];
+
+        Object[] stack = this.stack;
+        Object[] globals = this.globals;
+        int sp = this.sp;
+
+        while (true) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT -> {
+                    int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    stack[sp++] = constants[index];
+                }
+                case OpCode.NIL -> stack[sp++] = null;
+                case OpCode.TRUE -> stack[sp++] = true;
+                case OpCode.FALSE -> stack[sp++] = false;
+                case OpCode.POP -> stack[--sp] = null;
+
+                case OpCode.GET_LOCAL ->
+                    stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                case OpCode.SET_LOCAL ->
+                    stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                case OpCode.GET_GLOBAL -> {
+                    int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    Object value = globals[slot];
+                    if (value == UNDEFINED)
+                        throw undefined(function, ip, slot);
+                    stack[sp++] = value;
+                }
+                case OpCode.SET_GLOBAL -> {
+                    int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if (globals[slot] == UNDEFINED)
+                        throw undefined(function, ip, slot);
+                    globals[slot] = stack[sp - 1];
+                }
+                case OpCode.DEFINE_GLOBAL -> {
+                    int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    globals[slot] = stack[--sp];
+                    stack[sp] = null;
+                }
+
+                case OpCode.EQUAL -> {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = isEqual(stack[sp - 1], right);
+                }
+                case OpCode.GREATER -> {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(function, ip, left, right);
+                    stack[sp - 1] = (double)left > (double)right;
+                }
+                case OpCode.GREATER_EQUAL -> {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(function, ip, left, right);
+                    stack[sp - 1] = (double)left >= (double)right;
+                }
+                case OpCode.LESS -> {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(function, ip, left, right);
+                    stack[sp - 1] = (double)left < (double)right;
+                }
+                case OpCode.LESS_EQUAL -> {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(function, ip, left, right);
+                    stack[sp - 1] = (double)left <= (double)right;
+                }
+                case OpCode.ADD -> {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    stack[sp - 1] = add(function, ip, left, right);
+                }
+                case OpCode.SUBTRACT -> {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(function, ip, left, right);
+                    stack[sp - 1] = (double)left - (double)right;
+                }
+                case OpCode.MULTIPLY -> {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(function, ip, left, right);
+                    stack[sp - 1] = (double)left * (double)right;
+                }
+                case OpCode.DIVIDE -> {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(function, ip, left, right);
+                    if ((double)right == 0)
+                        throw error(function, ip, "Division by zero");
+                    stack[sp - 1] = (double)left / (double)right;
+                }
+                case OpCode.NOT -> stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                case OpCode.NEGATE -> {
+                    if (!(stack[sp - 1] instanceof Double value))
+                        throw error(function, ip, "Operand must be a number.");
+                    stack[sp - 1] = -value;
+                }
+
+                case OpCode.PRINT -> {
+                    output.print(stack[--sp]);
+                    stack[sp] = null;
+                }
+                case OpCode.JUMP -> {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 + offset;
+                }
+                case OpCode.JUMP_IF_FALSE -> {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if (!isTruthy(stack[sp - 1]))
+                        ip += offset;
+                }
+                case OpCode.LOOP -> {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 - offset;
+                }
+                case OpCode.CALL -> {
+                    int argCount = code[ip++] & 0xff;
+                    Object callee = stack[sp - argCount - 1];
+
+                    Upvalue[] calleeUpvalues = null;
+                    if (callee instanceof Closure closure) {
+                        calleeUpvalues = closure.upvalues;
+                        callee = closure.function;
+                    }
+
+                    if (callee instanceof CompiledFunction target) {
+                        if (argCount != target.arity)
+                            throw arityError(function, ip, target.arity, argCount);
+                        if (frameCount == maxFrames)
+                            throw error(function, ip, "Stack overflow.");
+                        stack = reserveFrame(sp, target);
+
+                        frameIps[frameCount - 1] = ip;
+                        base = sp - argCount;
+                        pushFrame(target, calleeUpvalues, base);
+                        upvalues = calleeUpvalues;
+                        function = target;
+                        code = function.chunk.code;
+                        constants = function.chunk.constants;
+                        ip = 0;
+                    } else {
+                        sp = callNative(function, ip, callee, argCount, sp);
+                    }
+                }
+                case OpCode.TAIL_CALL -> {
+                    int argCount = code[ip++] & 0xff;
+                    Object callee = stack[sp - argCount - 1];
+
+                    Upvalue[] calleeUpvalues = null;
+                    if (callee instanceof Closure closure) {
+                        calleeUpvalues = closure.upvalues;
+                        callee = closure.function;
+                    }
+
+                    // anything but a Pulse function is just called, and the
+                    // RETURN that follows hands its result back
+                    if (!(callee instanceof CompiledFunction target)) {
+                        sp = callNative(function, ip, callee, argCount, sp);
+                        continue;
+                    }
+                    if (argCount != target.arity)
+                        throw arityError(function, ip, target.arity, argCount);
+
+                    // the callee and its arguments replace this frame's
+                    // callee and locals, and the frame starts over in it
+                    stack = reserveFrame(base, target);
+                    closeUpvalues(stack, base);
+                    System.arraycopy(stack, sp - argCount - 1, stack, base - 1, argCount + 1);
+                    Arrays.fill(stack, base + argCount, sp, null);
+                    sp = base + argCount;
+
+                    frameFunctions[frameCount - 1] = target;
+                    frameUpvalues[frameCount - 1] = calleeUpvalues;
+                    upvalues = calleeUpvalues;
+                    function = target;
+                    code = function.chunk.code;
+                    constants = function.chunk.constants;
+                    ip = 0;
+                }
+                case OpCode.RETURN -> {
+                    Object result = stack[--sp];
+                    closeUpvalues(stack, base);
+                    // discard the callee and the frame's locals
+                    Arrays.fill(stack, base - 1, sp, null);
+                    frameUpvalues[frameCount - 1] = null;
+                    sp = base - 1;
+                    --frameCount;
+                    if (frameCount == 0) {
+                        this.sp = sp;
+                        return;
+                    }
+                    stack[sp++] = result;
+
+                    function = frameFunctions[frameCount - 1];
+                    code = function.chunk.code;
+                    constants = function.chunk.constants;
+                    ip = frameIps[frameCount - 1];
+                    base = frameBases[frameCount - 1];
+                    upvalues = frameUpvalues[frameCount - 1];
+                }
+
+                case OpCode.CLOSURE -> {
+                    int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    CompiledFunction target = (CompiledFunction)constants[index];
+                    Upvalue[] captured = new Upvalue[target.upvalueCount];
+                    for (int i = 0; i < captured.length; ++i) {
+                        boolean isLocal = code[ip++] != 0;
+                        int slot = code[ip++] & 0xff;
+                        captured[i] = isLocal
+                            ? captureUpvalue(base + slot)
+                            : upvalues[slot];
+                    }
+                    stack[sp++] = new Closure(target, captured);
+                }
+                case OpCode.GET_UPVALUE -> {
+                    Upvalue upvalue = upvalues[code[ip++] & 0xff];
+                    stack[sp++] = upvalue.slot >= 0 ? stack[upvalue.slot] : upvalue.closed;
+                }
+                case OpCode.SET_UPVALUE -> {
+                    Upvalue upvalue = upvalues[code[ip++] & 0xff];
+                    if (upvalue.slot >= 0)
+                        stack[upvalue.slot] = stack[sp - 1];
+                    else
+                        upvalue.closed = stack[sp - 1];
+                }
+                case OpCode.CLOSE_UPVALUE -> {
+                    closeUpvalues(stack, sp - 1);
+                    stack[--sp] = null;
+                }
+
+                case OpCode.ARRAY -> {
+                    int count = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    List<Object> values = new ArrayList<>(count);
+                    for (int i = sp - count; i < sp; ++i) {
+                        values.add(stack[i]);
+                        stack[i] = null;
+                    }
+                    sp -= count;
+                    stack[sp++] = values;
+                }
+                case OpCode.MAP -> {
+                    int count = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    PulseMap map = new PulseMap();
+                    for (int i = sp - 2 * count; i < sp; i += 2) {
+                        map.put(checkKey(function, ip, stack[i]), stack[i + 1]);
+                        stack[i] = null;
+                        stack[i + 1] = null;
+                    }
+                    sp -= 2 * count;
+                    stack[sp++] = map;
+                }
+                case OpCode.GET_INDEX -> {
+                    Object index = stack[--sp];
+                    stack[sp] = null;
+                    if (stack[sp - 1] instanceof PulseMap map) {
+                        stack[sp - 1] = map.get(checkKey(function, ip, index));
+                        continue;
+                    }
+                    List<Object> list = checkIndex(function, ip, stack[sp - 1], index);
+                    stack[sp - 1] = list.get(((Double)index).intValue());
+                }
+                case OpCode.SET_INDEX -> {
+                    Object value = stack[--sp];
+                    Object index = stack[--sp];
+                    stack[sp + 1] = null;
+                    stack[sp] = null;
+                    if (stack[sp - 1] instanceof PulseMap map) {
+                        map.put(checkKey(function, ip, index), value);
+                        stack[sp - 1] = null;
+                        continue;
+                    }
+                    List<Object> list = checkIndex(function, ip, stack[sp - 1], index);
+                    list.set(((Double)index).intValue(), value);
+                    // like the tree-walker, assigning an element yields nil
+                    stack[sp - 1] = null;
+                }
+
+                default -> throw error(function, ip,
+                    "Unknown opcode " + code[ip - 1] + ".");
+            }
+        }
+    }
+
+    private Object checkKey(CompiledFunction function, int ip, Object key) {
+        if (PulseMap.isKey(key))
+            return key;
+        throw error(function, ip, "Map keys must be strings or numbers.");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> checkIndex(CompiledFunction function, int ip,
+                                    Object object, Object index) {
+        if (!(object instanceof List))
+            throw error(function, ip, "Only arrays and maps can be subscripted");
+        if (!(index instanceof Double))
+            throw error(function, ip,
+                "Only numbers can be used to index an array.");
+
+        List<Object> list = (List<Object>)object;
+        int i = ((Double)index).intValue();
+        if (i < 0 || i >= list.size())
+            throw error(function, ip, "Array index out of range.");
+        return list;
+    }
+
+    private Object add(CompiledFunction function, int ip,
+                       Object left, Object right) {
+        if (left instanceof Double) {
+            if (right instanceof Double)
+                return (double)left + (double)right;
+            else if (PulseString.isString(right))
+                return PulseString.concat(left.toString(), (CharSequence)right);
+        } else if (PulseString.isString(left)) {
+            if (right instanceof Double)
+                return PulseString.concat((CharSequence)left, right.toString());
+            else if (PulseString.isString(right))
+                return PulseString.concat((CharSequence)left, (CharSequence)right);
+        }
+        throw error(function, ip,
+            "Operands must be two numbers or two strings.");
+    }
+
+    private void checkNumberOperands(CompiledFunction function, int ip,
+                                     Object left, Object right) {
+        if (left instanceof Double && right instanceof Double)
+            return;
+        throw error(function, ip, "Operands must be numbers.");
+    }
+
+    private VMRuntimeError undefined(CompiledFunction function, int ip, int slot) {
+        return error(function, ip,
+            "Undefined variable '" + globalNames.get(slot) + "'.");
+    }
+
+    private VMRuntimeError arityError(CompiledFunction function, int ip,
+                                      int arity, int argCount) {
+        return error(function, ip,
+            "Expected " + arity + " arguments but got " + argCount + ".");
+    }
+
+    // ip is just past the failing instruction, whose bytes share a line
+    private VMRuntimeError error(CompiledFunction function, int ip,
+                                 String message) {
+        return new VMRuntimeError(function.chunk.lines[ip - 1], message);
+    }
+
+    private static boolean isTruthy(Object object) {
+        if (object == null)
+            return false;
+        if (object instanceof Boolean)
+            return (boolean)object;
+        return true;
+    }
+    private static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null)
+            return true;
+        if (a == null)
+            return false;
+        // only a PulseString knows it can equal a String
+        if (b instanceof PulseString)
+            return b.equals(a);
+        return a.equals(b);
+    }
+}
@@ -14,26 +14,29 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-            "Assign   : Token name, Expr value",
-            "Binary   : Expr left, Token operator, Expr right",
-            "Call     : Expr callee, Token paren, List<Expr> arguments",
+            "Assign   : Token name, Expr value | int depth, int slot, boolean captured",
+            "Binary   : Expr left, Token operator, Expr right"
+                + " | boolean numeric, BinaryNode node = BinaryNode.UNINITIALIZED",
+            "Call     : Expr callee, Token paren, List<Expr> arguments | Stmt.Function cachedDeclaration",
             "Grouping : Expr expression",
             "Literal  : Object value",
             "Logical  : Expr left, Token operator, Expr right",
             "Set      : Expr object, Token name, Expr right",
-            "Unary    : Token operator, Expr right",
-            "Variable : Token name",
+            "Unary    : Token operator, Expr right | boolean numeric",
+            "Variable : Token name | int depth, int slot, boolean captured",
             "Array    : List<Expr> values",
-            "Subscript : Expr object, Token name, Expr value"));
+            "Subscript : Expr object, Token name, Expr value",
+            "Map      : Token brace, List<Expr> keys, List<Expr> values"));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-            "Block      : List<Stmt> statements",
+            "Block      : List<Stmt> statements | int slots",
             "Expression : Expr expression",
-            "Function   : Token name, List<Token> params, List<Stmt> body",
+            "Function   : Token name, List<Token> params, List<Stmt> body"
+                + " | int slot, int slots, boolean captured, int[] capturedParams, Resolver.Capture[] captures",
             "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
             "Print      : Expr expression",
-            "Return     : Token keyword, Expr value",
-            "Var        : Token name, Expr initializer",
+            "Return     : Token keyword, Expr value | boolean tailCall",
+            "Var        : Token name, Expr initializer | int slot, boolean captured",
             "While      : Expr condition, Stmt body"));
     }
 
@@ -60,7 +63,13 @@ public class GenerateAst {
             for (String type : types) {
                 String className = type.split(":")[0].trim();
                 String fields = type.split(":")[1].trim();
-                defineType(writer, baseName, className, fields);
+                // fields after '|' are filled in by later passes (Resolver)
+                String annotations = null;
+                if (fields.contains("|")) {
+                    annotations = fields.split("\\|")[1].trim();
+                    fields = fields.split("\\|")[0].trim();
+                }
+                defineType(writer, baseName, className, fields, annotations);
             }
 
 
@@ -83,7 +92,8 @@ public class GenerateAst {
     }
 
     private static void defineType(
-            PrintWriter writer, String baseName, String className, String fieldList) {
+            PrintWriter writer, String baseName, String className,
+            String fieldList, String annotationList) {
 
         // subclass declaration
         writer.println("    static class " + className + " extends " + baseName + " {");
@@ -104,6 +114,14 @@ public class GenerateAst {
             writer.println("        final " + field + ";");
         }
 
+        // mutable annotations, not part of the constructor
+        if (annotationList != null) {
+            writer.println();
+            for (String annotation : annotationList.split(", ")) {
+                writer.println("        " + annotation + ";");
+            }
+        }
+
         // constructor
         writer.println();
         writer.println("        " + className + "(" + fieldList + ") {");
@@ -0,0 +1,30 @@
+#!/bin/sh
+# Runs tests/cache-hit.txt against a fresh cache directory, once to fill
+# the cache and once to read it back, in UTF-8 and then in ISO-8859-1
+# (which must not reuse the UTF-8 entry), and checks that each run
+# prints what the same run prints with --no-cache.
+#
+#   tests/cache-hit.sh [classpath]    (default: out)
+
+classpath=${1:-out}
+script=$(dirname "$0")/cache-hit.txt
+PULSE_CACHE_DIR=$(mktemp -d) || exit 1
+export PULSE_CACHE_DIR
+trap 'rm -rf "$PULSE_CACHE_DIR"' EXIT
+
+failed=0
+for charset in UTF-8 ISO-8859-1; do
+    expected=$(java -Dfile.encoding=$charset -classpath "$classpath" \
+        pulse.Pulse --no-cache "$script")
+    for run in filling reading; do
+        actual=$(java -Dfile.encoding=$charset -classpath "$classpath" \
+            pulse.Pulse "$script")
+        if [ "$actual" != "$expected" ]; then
+            echo "FAIL: $charset, $run the cache"
+            failed=1
+        fi
+    done
+done
+
+[ $failed -eq 0 ] && echo "ok"
+exit $failed